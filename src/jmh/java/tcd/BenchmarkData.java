@@ -0,0 +1,48 @@
+package tcd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Corpora and indexes shared by the benchmarks. Synthetic corpora are generated once and kept in target/.
+ *
+ */
+class BenchmarkData {
+
+	static final String CRAN = "cran";
+
+	/**
+	 * @param corpus: "cran" for the real collection, or a number of documents for a synthetic corpus
+	 * @return directory holding cran.all.1400 for the corpus
+	 */
+	static String dataDir(String corpus) throws IOException {
+
+		if (corpus.equals(CRAN)) return "data/cran";
+
+		String dataDir = "target/jmh-data/" + corpus;
+		if (!new File(dataDir, "cran.all.1400").exists())
+			new CranCorpusGenerator("data/cran").generate(dataDir, Integer.parseInt(corpus), 42);
+		return dataDir;
+	}
+
+	/**
+	 * Build a fresh index of a corpus
+	 * @return location of the index
+	 */
+	static Path buildIndex(String corpus, String analyzer, String similarity, IndexOptions options) throws IOException {
+
+		Path indexFile = Paths.get("target/jmh-index/" + corpus + "-" + analyzer + "-" + similarity);
+		new FileIO().deleteDir(indexFile.toFile());
+
+		CranParser cranParser = new FileIO().streamCran(dataDir(corpus));
+		try {
+			new Indexer().createCranIndex(indexFile, cranParser, analyzer, similarity, options);
+		}
+		finally {
+			cranParser.close();
+		}
+		return indexFile;
+	}
+}
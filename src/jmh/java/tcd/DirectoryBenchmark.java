@@ -0,0 +1,80 @@
+package tcd;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per query latency of Searcher.searchCranQueries over the 225 cran queries for each storage backend
+ * of DirectoryFactory. The index is built through the same factory, so in memory mode it never
+ * touches the disk.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryBenchmark {
+
+	private static final int CRAN_QUERIES = 225;
+
+	@Param({"cran"})
+	public String corpus;
+
+	@Param({"fs", "mmap", "nio", "memory"})
+	public String directory;
+
+	@Param({"true"})
+	public boolean preload;
+
+	private DirectoryFactory directoryFactory;
+	private Path indexFile;
+	private SearchService searchService;
+	private Searcher searcher;
+	private List<Map<String, String>> cranQueryList;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		directoryFactory = new DirectoryFactory(directory).setPreload(preload);
+		indexFile = BenchmarkData.buildIndex(corpus, "English", "BM25", new IndexOptions().setDirectoryFactory(directoryFactory));
+		searchService = new SearchService(indexFile, directoryFactory);
+		cranQueryList = new FileIO().parseCranQueries("data/cran");
+
+		searcher = new Searcher();
+		searcher.setRunFile(null);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+
+		searchService.close();
+		directoryFactory.release(indexFile);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CRAN_QUERIES)
+	public Map<String, List<String>> searchCranQueries() throws ParseException {
+
+		return searcher.searchCranQueries(searchService, cranQueryList, "1000", 1);
+	}
+}
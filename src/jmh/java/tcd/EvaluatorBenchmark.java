@@ -0,0 +1,50 @@
+package tcd;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating a full cran run against the relevancy judgements.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+	private Map<String, List<String>> resultDict;
+	private Map<String, List<List<String>>> cranRelDict;
+
+	@Setup
+	public void setUp() throws IOException, ParseException {
+
+		FileIO fileIO = new FileIO();
+		Path indexFile = BenchmarkData.buildIndex(BenchmarkData.CRAN, "English", "BM25", new IndexOptions());
+		resultDict = new Searcher().searchCranQueries(indexFile, fileIO.parseCranQueries("data/cran"), "English", "BM25", "1000");
+		cranRelDict = fileIO.parseCranRel("data/cran");
+	}
+
+	@Benchmark
+	public Map<String, Double> calculateMetrics() {
+
+		return new Evaluator().calculateMetrics(resultDict, cranRelDict);
+	}
+}
@@ -0,0 +1,47 @@
+package tcd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build a complete index for each analyzer and similarity pair.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+
+	@Param({"cran"})
+	public String corpus;
+
+	@Param({"Standard", "Keyword", "WhiteSpace", "Simple", "Stop", "English"})
+	public String analyzer;
+
+	@Param({"TFIDF", "BM25"})
+	public String similarity;
+
+	@Param({"1"})
+	public int threads;
+
+	@Benchmark
+	public Path createCranIndex() throws IOException {
+
+		return BenchmarkData.buildIndex(corpus, analyzer, similarity, new IndexOptions().setThreads(threads));
+	}
+}
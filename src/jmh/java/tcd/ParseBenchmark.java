@@ -0,0 +1,67 @@
+package tcd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing cran documents, collected into a list and streamed, serially and in parallel.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({"cran", "100000"})
+	public String corpus;
+
+	private String dataDir;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		dataDir = BenchmarkData.dataDir(corpus);
+	}
+
+	@Benchmark
+	public List<CranDocument> parseCran() {
+
+		return new FileIO().parseCran(dataDir);
+	}
+
+	@Benchmark
+	public long streamCran() throws IOException {
+
+		long length = 0;
+		CranParser cranParser = new FileIO().streamCran(dataDir);
+		while (cranParser.hasNext()) length += cranParser.next().getAbstract().length();
+		cranParser.close();
+		return length;
+	}
+
+	@Benchmark
+	public long streamCranParallel() throws IOException {
+
+		long length = 0;
+		ParallelCranParser cranParser = new FileIO().streamCranParallel(dataDir, Runtime.getRuntime().availableProcessors());
+		while (cranParser.hasNext()) length += cranParser.next().getAbstract().length();
+		cranParser.close();
+		return length;
+	}
+}
@@ -0,0 +1,81 @@
+package tcd;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per query latency of Searcher.searchCranQueries over the 225 cran queries.
+ * The exhaustive mode scores every match, the topk mode counts hits exactly only up to the
+ * number of hits asked for, letting block-max WAND skip the rest.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+	private static final int CRAN_QUERIES = 225;
+
+	@Param({"cran"})
+	public String corpus;
+
+	@Param({"Standard", "English"})
+	public String analyzer;
+
+	@Param({"TFIDF", "BM25"})
+	public String similarity;
+
+	@Param({"10", "100", "1000"})
+	public String hpp;
+
+	@Param({"exhaustive", "topk"})
+	public String mode;
+
+	private SearchService searchService;
+	private Searcher searcher;
+	private List<Map<String, String>> cranQueryList;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		searchService = new SearchService(BenchmarkData.buildIndex(corpus, analyzer, similarity, new IndexOptions()));
+		cranQueryList = new FileIO().parseCranQueries("data/cran");
+
+		searcher = new Searcher();
+		searcher.setRunFile(null);
+		searcher.setTotalHitsThreshold(mode.equals("topk") ? Integer.parseInt(hpp) : Searcher.EXACT_TOTAL_HITS);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+
+		searchService.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CRAN_QUERIES)
+	public Map<String, List<String>> searchCranQueries() throws ParseException {
+
+		return searcher.searchCranQueries(searchService, cranQueryList, analyzer, similarity, hpp, 1);
+	}
+}
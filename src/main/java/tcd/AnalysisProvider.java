@@ -0,0 +1,16 @@
+package tcd;
+
+/**
+ * Plugs custom analyzers and similarities into the AnalysisRegistry. Implementations are found with
+ * java.util.ServiceLoader, so a jar only needs to list its provider class in
+ * META-INF/services/tcd.AnalysisProvider to be picked up by the Indexer and Searcher.
+ *
+ */
+public interface AnalysisProvider {
+
+	/**
+	 * Register analyzers and similarities
+	 * @param registry: registry to add them to
+	 */
+	void register(AnalysisRegistry registry);
+}
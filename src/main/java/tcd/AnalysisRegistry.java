@@ -0,0 +1,348 @@
+package tcd;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.core.StopAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single place where analyzers and similarities are looked up by name, shared by the Indexer and
+ * the Searcher so the analysis at index time and at query time always match.
+ * Each analyzer and similarity is built once and reused by every thread; Lucene analyzers keep
+ * their token streams per thread.
+ *
+ * Besides the built-in ones, analyzers and similarities come from AnalysisProvider services and from
+ * a properties file, "analysis.properties" in the working directory or the file named by the
+ * tcd.analysis system property:
+ *
+ *    # an Analyzer class with a no-arg constructor, or a tokenizer followed by token filters
+ *    analyzer.Porter = standard,lowercase,stop,porterstem
+ *    analyzer.Mine = com.example.MyAnalyzer
+ *    # a Similarity class with a no-arg constructor
+ *    similarity.Boolean = org.apache.lucene.search.similarities.BooleanSimilarity
+ *
+ */
+public class AnalysisRegistry {
+
+	public static final String DEFAULT_ANALYZER = "English";
+	public static final String DEFAULT_SIMILARITY = "BM25";
+	public static final String CONFIG_PROPERTY = "tcd.analysis";
+
+	private static final String DEFAULT_CONFIG = "analysis.properties";
+
+	private static AnalysisRegistry defaultRegistry = null;
+
+	/**
+	 * Builds an analyzer the first time it is used.
+	 */
+	public interface AnalyzerFactory {
+
+		Analyzer create() throws IOException;
+	}
+
+	/**
+	 * Builds a similarity the first time it is used.
+	 */
+	public interface SimilarityFactory {
+
+		Similarity create();
+	}
+
+	private final Map<String, AnalyzerFactory> analyzerFactories = new ConcurrentHashMap<String, AnalyzerFactory>();
+	private final Map<String, SimilarityFactory> similarityFactories = new ConcurrentHashMap<String, SimilarityFactory>();
+	private final Map<String, Analyzer> analyzers = new ConcurrentHashMap<String, Analyzer>();
+	private final Map<String, Similarity> similarities = new ConcurrentHashMap<String, Similarity>();
+	// Definition of each analyzer loaded from a properties file
+	private final Map<String, String> analyzerConfigs = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return the registry holding the built-in, AnalysisProvider and configured analyzers and similarities
+	 */
+	public static synchronized AnalysisRegistry getDefault() {
+
+		if (defaultRegistry == null) {
+
+			AnalysisRegistry registry = new AnalysisRegistry();
+			registry.registerBuiltIns();
+			for (AnalysisProvider provider : ServiceLoader.load(AnalysisProvider.class)) provider.register(registry);
+			try {
+				File config = new File(System.getProperty(CONFIG_PROPERTY, DEFAULT_CONFIG));
+				if (config.exists()) registry.loadConfig(config.toPath());
+			}
+			catch (IOException e) {
+
+				e.printStackTrace();
+				System.exit(1);
+			}
+			defaultRegistry = registry;
+		}
+		return defaultRegistry;
+	}
+
+	/**
+	 * Register the analyzers and similarities the cran experiments have always used
+	 */
+	public void registerBuiltIns() {
+
+		// the most commonly used analyzer:
+		// Note that the StandardAnalyzer can recognize URLs and emails.
+		//Also, it removes stop words and lowercases the generated tokens.
+		registerAnalyzer("Standard", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new StandardAnalyzer(EnglishAnalyzer.getDefaultStopSet());
+			}
+		});
+		//The KeywordAnalyzer tokenizes input into a single token ,useful for fields like ids and zipcodes.
+		registerAnalyzer("Keyword", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new KeywordAnalyzer();
+			}
+		});
+		//The WhitespaceAnalyzer uses only a WhitespaceTokenizer which splits text by whitespace characters:
+		registerAnalyzer("WhiteSpace", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new WhitespaceAnalyzer();
+			}
+		});
+		//SimpleAnalyzer consists of LetterTokenizer and a LowerCaseFilter:
+		// SimpleAnalyzer didn't remove stop words. It also doesn't recognize URLs.
+		registerAnalyzer("Simple", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new SimpleAnalyzer();
+			}
+		});
+		//the LetterTokenizer splits text by non-letter characters, while the StopFilter removes stop words from the token list.
+		//However, unlike the StandardAnalyzer, StopAnalyzer isn't able to recognize URLs.
+		registerAnalyzer("Stop", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new StopAnalyzer();
+			}
+		});
+		//EnglishAnalyzer which consists of StandardTokenizer, StandardFilter, EnglishPossessiveFilter, LowerCaseFilter, StopFilter, and PorterStemFilter.
+		registerAnalyzer("English", new AnalyzerFactory() {
+			@Override
+			public Analyzer create() {
+				return new EnglishAnalyzer();
+			}
+		});
+
+		registerSimilarity("TFIDF", new SimilarityFactory() {
+			@Override
+			public Similarity create() {
+				return new ClassicSimilarity();
+			}
+		});
+		registerSimilarity("BM25", new SimilarityFactory() {
+			@Override
+			public Similarity create() {
+				return new BM25Similarity();
+			}
+		});
+		registerSimilarity("LMDirichlet", new SimilarityFactory() {
+			@Override
+			public Similarity create() {
+				return new LMDirichletSimilarity();
+			}
+		});
+	}
+
+	/**
+	 * Add analyzers and similarities from a properties file, see the class comment for the format
+	 * @param config: location of the properties file
+	 * @throws IOException
+	 */
+	public void loadConfig(Path config) throws IOException {
+
+		Properties properties = new Properties();
+		InputStream in = Files.newInputStream(config);
+		try {
+			properties.load(in);
+		}
+		finally {
+			in.close();
+		}
+
+		for (String key : properties.stringPropertyNames()) {
+
+			final String value = properties.getProperty(key).trim();
+			if (key.startsWith("analyzer.")) {
+
+				// Tokenizer and filter names never contain dots, class names do
+				if (value.contains(".")) {
+
+					registerAnalyzer(key.substring("analyzer.".length()), new AnalyzerFactory() {
+						@Override
+						public Analyzer create() throws IOException {
+							return newInstance(value, Analyzer.class);
+						}
+					});
+				}
+				else {
+
+					registerAnalyzer(key.substring("analyzer.".length()), new AnalyzerFactory() {
+						@Override
+						public Analyzer create() throws IOException {
+
+							String[] chain = value.split("\\s*,\\s*");
+							CustomAnalyzer.Builder builder = CustomAnalyzer.builder().withTokenizer(chain[0]);
+							for (int i = 1; i < chain.length; i++) builder.addTokenFilter(chain[i]);
+							return builder.build();
+						}
+					});
+				}
+				analyzerConfigs.put(key.substring("analyzer.".length()), value);
+			}
+			else if (key.startsWith("similarity.")) {
+
+				// Fail on a bad class name now rather than at the first search
+				newInstance(value, Similarity.class);
+				registerSimilarity(key.substring("similarity.".length()), new SimilarityFactory() {
+					@Override
+					public Similarity create() {
+
+						try {
+							return newInstance(value, Similarity.class);
+						}
+						catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				});
+			}
+			else throw new IOException("Unknown key " + key + " in " + config + ", expected analyzer.<name> or similarity.<name>");
+		}
+	}
+
+	private static <T> T newInstance(String className, Class<T> type) throws IOException {
+
+		try {
+			return Class.forName(className).asSubclass(type).getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot create " + type.getSimpleName() + " " + className, e);
+		}
+		catch (ClassCastException e) {
+			throw new IOException(className + " is not a " + type.getSimpleName(), e);
+		}
+	}
+
+	/**
+	 * Add or replace an analyzer
+	 * @param name: name the analyzer is looked up by
+	 * @param factory: builds the analyzer on first use
+	 */
+	public void registerAnalyzer(String name, AnalyzerFactory factory) {
+
+		analyzerFactories.put(name, factory);
+		analyzers.remove(name);
+		analyzerConfigs.remove(name);
+	}
+
+	/**
+	 * Add or replace a similarity
+	 * @param name: name the similarity is looked up by
+	 * @param factory: builds the similarity on first use
+	 */
+	public void registerSimilarity(String name, SimilarityFactory factory) {
+
+		similarityFactories.put(name, factory);
+		similarities.remove(name);
+	}
+
+	/**
+	 * @return the name itself if an analyzer is registered under it, DEFAULT_ANALYZER otherwise
+	 */
+	public String analyzerName(String name) {
+
+		return name != null && analyzerFactories.containsKey(name) ? name : DEFAULT_ANALYZER;
+	}
+
+	/**
+	 * @param name: analyzer name, unknown names get the DEFAULT_ANALYZER
+	 * @return the class name or tokenizer and filter chain an analyzer was defined with in a properties
+	 *         file, or "" for analyzers registered in code, which change only with the code
+	 */
+	public String analyzerConfig(String name) {
+
+		String config = analyzerConfigs.get(analyzerName(name));
+		return config != null ? config : "";
+	}
+
+	/**
+	 * @return the name itself if a similarity is registered under it, DEFAULT_SIMILARITY otherwise
+	 */
+	public String similarityName(String name) {
+
+		return name != null && similarityFactories.containsKey(name) ? name : DEFAULT_SIMILARITY;
+	}
+
+	/**
+	 * @param name: analyzer name, unknown names get the DEFAULT_ANALYZER
+	 * @return the shared analyzer, built on first use
+	 * @throws IOException
+	 */
+	public Analyzer getAnalyzer(String name) throws IOException {
+
+		name = analyzerName(name);
+		Analyzer analyzer = analyzers.get(name);
+		if (analyzer == null) {
+
+			synchronized (this) {
+
+				analyzer = analyzers.get(name);
+				if (analyzer == null) {
+
+					analyzer = analyzerFactories.get(name).create();
+					analyzers.put(name, analyzer);
+				}
+			}
+		}
+		return analyzer;
+	}
+
+	/**
+	 * @param name: similarity name, unknown names get the DEFAULT_SIMILARITY
+	 * @return the shared similarity, built on first use
+	 */
+	public Similarity getSimilarity(String name) {
+
+		name = similarityName(name);
+		Similarity similarity = similarities.get(name);
+		if (similarity == null) {
+
+			synchronized (this) {
+
+				similarity = similarities.get(name);
+				if (similarity == null) {
+
+					similarity = similarityFactories.get(name).create();
+					similarities.put(name, similarity);
+				}
+			}
+		}
+		return similarity;
+	}
+}
@@ -0,0 +1,139 @@
+package tcd;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic cran formatted corpora of any size, for benchmarking.
+ * Every field is filled with words drawn from the same field of the real cran documents,
+ * with the word frequencies and field lengths of the real corpus.
+ *
+ */
+public class CranCorpusGenerator {
+
+	private static final int WORDS_PER_LINE = 12;
+
+	private final FieldModel titles = new FieldModel();
+	private final FieldModel authors = new FieldModel();
+	private final FieldModel locations = new FieldModel();
+	private final FieldModel abstracts = new FieldModel();
+
+	/**
+	 * Learn the field vocabularies and lengths from a cran corpus
+	 * @param dataDir: directory holding cran.all.1400
+	 */
+	public CranCorpusGenerator(String dataDir) {
+
+		FileIO fileIO = new FileIO();
+		CranParser cranParser = fileIO.streamCran(dataDir);
+		while (cranParser.hasNext()) {
+
+			CranDocument cranDocument = cranParser.next();
+			titles.add(cranDocument.getTitle());
+			authors.add(cranDocument.getAuthors());
+			locations.add(cranDocument.getLocations());
+			abstracts.add(cranDocument.getAbstract());
+		}
+		try {
+			cranParser.close();
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Write a synthetic corpus
+	 * @param outputDir: directory to write cran.all.1400 into, created if it does not exist
+	 * @param numDocs: number of documents to generate
+	 * @param seed: random seed, the same seed always generates the same corpus
+	 */
+	public void generate(String outputDir, int numDocs, long seed) throws IOException {
+
+		File dir = new File(outputDir);
+		if (!dir.exists()) dir.mkdirs();
+
+		Random random = new Random(seed);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "cran.all.1400")), Charset.forName("UTF-8")), 1 << 16);
+		try {
+
+			for (int i = 1; i <= numDocs; i++) {
+
+				writer.write(".I " + i + "\n");
+				writer.write(".T\n");
+				titles.write(writer, random);
+				writer.write(".A\n");
+				authors.write(writer, random);
+				writer.write(".B\n");
+				locations.write(writer, random);
+				writer.write(".W\n");
+				abstracts.write(writer, random);
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Word and length distribution of a single field.
+	 */
+	private static class FieldModel {
+
+		private final List<String> words = new ArrayList<String>();
+		private final List<Integer> lengths = new ArrayList<Integer>();
+
+		void add(String text) {
+
+			int length = 0;
+			for (String word : text.trim().split("\\s+")) {
+
+				if (word.isEmpty()) continue;
+				words.add(word);
+				length++;
+			}
+			lengths.add(length);
+		}
+
+		void write(Writer writer, Random random) throws IOException {
+
+			int length = lengths.get(random.nextInt(lengths.size()));
+			for (int i = 0; i < length; i++) {
+
+				writer.write(words.get(random.nextInt(words.size())));
+				writer.write(i % WORDS_PER_LINE == WORDS_PER_LINE - 1 || i == length - 1 ? '\n' : ' ');
+			}
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args: output directory, number of documents, and optionally the source data directory and random seed
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+
+			System.out.println("Usage: CranCorpusGenerator <outputDir> <numDocs> [dataDir] [seed]");
+			System.exit(1);
+		}
+		String outputDir = args[0];
+		int numDocs = Integer.parseInt(args[1]);
+		String dataDir = args.length > 2 ? args[2] : "data/cran";
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		System.out.println("Generating " + numDocs + " documents into " + outputDir + "...");
+		new CranCorpusGenerator(dataDir).generate(outputDir, numDocs, seed);
+		System.out.println("Done!");
+	}
+}
@@ -0,0 +1,48 @@
+package tcd;
+
+/**
+ * A single parsed cran document.
+ *
+ */
+public class CranDocument {
+
+	private final String id;
+	private final String title;
+	private final String authors;
+	private final String locations;
+	private final String abst;
+
+	public CranDocument(String id, String title, String authors, String locations, String abst) {
+
+		this.id = id;
+		this.title = title;
+		this.authors = authors;
+		this.locations = locations;
+		this.abst = abst;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getAuthors() {
+		return authors;
+	}
+
+	public String getLocations() {
+		return locations;
+	}
+
+	public String getAbstract() {
+		return abst;
+	}
+
+	@Override
+	public String toString() {
+		return "{ID=" + id + ", Title=" + title + ", Authors=" + authors + ", Locations=" + locations + ", Abstract=" + abst + "}";
+	}
+}
@@ -0,0 +1,209 @@
+package tcd;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming parser for cran formatted documents. Documents are read one at a time,
+ * so memory stays constant no matter how large the corpus is.
+ *
+ */
+public class CranParser implements Iterator<CranDocument>, Closeable {
+
+	private final BufferedReader reader;
+
+	// Field buffers, reused between documents
+	private final StringBuilder title = new StringBuilder();
+	private final StringBuilder authors = new StringBuilder();
+	private final StringBuilder locations = new StringBuilder();
+	private final StringBuilder abst = new StringBuilder();
+
+	private String id = null;
+	private String currentTitle = "";
+	private String currentAuthors = "";
+	private String currentLocations = "";
+
+	private char next = 'I';
+	private int lineNumber = 0;
+	private boolean finished = false;
+	private CranDocument nextDocument = null;
+
+	public CranParser(BufferedReader reader) {
+
+		this.reader = reader;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (nextDocument == null && !finished) {
+
+			try {
+				nextDocument = readDocument();
+			}
+			catch (IOException e) {
+
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		return nextDocument != null;
+	}
+
+	@Override
+	public CranDocument next() {
+
+		if (!hasNext()) throw new NoSuchElementException();
+		CranDocument document = nextDocument;
+		nextDocument = null;
+		return document;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		reader.close();
+	}
+
+	/**
+	 * Read lines until the next document is complete
+	 * @return the parsed document, or null at the end of input
+	 * @throws IOException
+	 */
+	private CranDocument readDocument() throws IOException {
+
+		String line;
+		// Loop through each line
+		while ((line = reader.readLine()) != null) {
+
+			lineNumber++;
+
+			// Check the current line's tag, save the next tag and perform operations
+			switch (tagOf(line)) {
+
+			case 'I':
+				if (next != 'I') printParseError(lineNumber);
+				CranDocument document = id != null ? buildDocument() : null;
+				id = secondWord(line);
+				abst.setLength(0);
+				next = 'T';
+				if (document != null) return document;
+				break;
+
+			case 'T':
+				if (next != 'T') printParseError(lineNumber);
+				next = 'A';
+				break;
+
+			case 'A':
+				if (next != 'A') {
+
+					if (next == 'I') break;
+					printParseError(lineNumber);
+				}
+				currentTitle = title.toString();
+				title.setLength(0);
+				next = 'B';
+				break;
+
+			case 'B':
+				if (next != 'B') {
+
+					if (next == 'I') break;
+					printParseError(lineNumber);
+				}
+				currentAuthors = authors.toString();
+				authors.setLength(0);
+				next = 'W';
+				break;
+
+			case 'W':
+				if (next != 'W') {
+
+					if (next == 'I') break;
+					printParseError(lineNumber);
+				}
+				currentLocations = locations.toString();
+				locations.setLength(0);
+				next = 'I';
+				break;
+
+			default:
+				// Check the current tag, and perform operations
+				switch (next) {
+
+				case 'A':
+					title.append(line).append(' ');
+					break;
+
+				case 'B':
+					authors.append(line).append(' ');
+					break;
+
+				case 'W':
+					locations.append(line).append(' ');
+					break;
+
+				case 'I':
+					abst.append(line).append(' ');
+					break;
+
+				default:
+					printParseError(lineNumber);
+				}
+			}
+		}
+
+		// Add the last entry
+		finished = true;
+		return id != null ? buildDocument() : null;
+	}
+
+	private CranDocument buildDocument() {
+
+		CranDocument document = new CranDocument(id, currentTitle, currentAuthors, currentLocations, abst.toString());
+		id = null;
+		currentTitle = "";
+		currentAuthors = "";
+		currentLocations = "";
+		return document;
+	}
+
+	/**
+	 * Get the tag of a line without splitting it
+	 * @param line: line of the cran file
+	 * @return tag letter such as 'I' for ".I", or 0 if the line is not a tag line
+	 */
+	static char tagOf(String line) {
+
+		if (line.length() < 2 || line.charAt(0) != '.') return 0;
+		if (line.length() > 2 && !Character.isWhitespace(line.charAt(2))) return 0;
+		char tag = line.charAt(1);
+		return tag == 'I' || tag == 'T' || tag == 'A' || tag == 'B' || tag == 'W' ? tag : 0;
+	}
+
+	/**
+	 * Get the second whitespace separated word of a line, e.g. the id of ".I 12"
+	 */
+	static String secondWord(String line) {
+
+		int start = 2;
+		while (start < line.length() && Character.isWhitespace(line.charAt(start))) start++;
+		int end = start;
+		while (end < line.length() && !Character.isWhitespace(line.charAt(end))) end++;
+		return line.substring(start, end);
+	}
+
+	private void printParseError(int lineNumber) {
+
+		System.out.println("Parsing unsuccessful from line " + Integer.toString(lineNumber) + ". Please check the document again till this line.");
+	}
+}
@@ -0,0 +1,272 @@
+package tcd;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshots of the parsed cran documents, queries and judgements, written by FileIO the first
+ * time it parses a file. A snapshot is memory mapped and decoded without any line splitting, and is only
+ * used while its source file keeps the size, modification time and location it was taken from.
+ *
+ * Every snapshot starts with a header (magic number, version, kind, source size, source modification
+ * time, source path) followed by length prefixed UTF-8 strings or int arrays.
+ *
+ */
+class CranSnapshot {
+
+	private static final int MAGIC = 0x43524e53;
+	private static final int VERSION = 1;
+
+	private static final int DOCUMENTS = 1;
+	private static final int QUERIES = 2;
+	private static final int QRELS = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return the parsed documents, or null if there is no up to date snapshot of the source
+	 */
+	static List<CranDocument> readDocuments(Path snapshotDir, File source) throws IOException {
+
+		ByteBuffer buffer = open(snapshotDir, source, DOCUMENTS);
+		if (buffer == null) return null;
+		try {
+
+			int count = buffer.getInt();
+			List<CranDocument> cranList = new ArrayList<CranDocument>(count);
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < count; i++) {
+
+				String id = getString(buffer, bytes);
+				String title = getString(buffer, bytes);
+				String authors = getString(buffer, bytes);
+				String locations = getString(buffer, bytes);
+				String abst = getString(buffer, bytes);
+				cranList.add(new CranDocument(id, title, authors, locations, abst));
+			}
+			return cranList;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	static void writeDocuments(Path snapshotDir, File source, List<CranDocument> cranList) throws IOException {
+
+		DataOutputStream out = create(snapshotDir, source, DOCUMENTS);
+		try {
+
+			out.writeInt(cranList.size());
+			for (CranDocument cranDocument : cranList) {
+
+				putString(out, cranDocument.getId());
+				putString(out, cranDocument.getTitle());
+				putString(out, cranDocument.getAuthors());
+				putString(out, cranDocument.getLocations());
+				putString(out, cranDocument.getAbstract());
+			}
+		}
+		finally {
+			out.close();
+		}
+		commit(snapshotDir, source);
+	}
+
+	/**
+	 * @return the parsed queries, or null if there is no up to date snapshot of the source
+	 */
+	static List<Map<String, String>> readQueries(Path snapshotDir, File source) throws IOException {
+
+		ByteBuffer buffer = open(snapshotDir, source, QUERIES);
+		if (buffer == null) return null;
+		try {
+
+			int count = buffer.getInt();
+			List<Map<String, String>> cranQueryList = new ArrayList<Map<String, String>>(count);
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < count; i++) {
+
+				int entries = buffer.getInt();
+				Map<String, String> cranQueryDict = new HashMap<String, String>();
+				for (int j = 0; j < entries; j++) cranQueryDict.put(getString(buffer, bytes), getString(buffer, bytes));
+				cranQueryList.add(cranQueryDict);
+			}
+			return cranQueryList;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	static void writeQueries(Path snapshotDir, File source, List<Map<String, String>> cranQueryList) throws IOException {
+
+		DataOutputStream out = create(snapshotDir, source, QUERIES);
+		try {
+
+			out.writeInt(cranQueryList.size());
+			for (Map<String, String> cranQueryDict : cranQueryList) {
+
+				out.writeInt(cranQueryDict.size());
+				for (Map.Entry<String, String> entry : cranQueryDict.entrySet()) {
+
+					putString(out, entry.getKey());
+					putString(out, entry.getValue());
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		commit(snapshotDir, source);
+	}
+
+	/**
+	 * @return the judgements, or null if there is no up to date snapshot of the source
+	 */
+	static Qrels readQrels(Path snapshotDir, File source) throws IOException {
+
+		ByteBuffer buffer = open(snapshotDir, source, QRELS);
+		if (buffer == null) return null;
+		try {
+
+			Qrels qrels = new Qrels();
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+
+				int query = buffer.getInt();
+				int[] docs = new int[buffer.getInt()];
+				int[] grades = new int[docs.length];
+				buffer.asIntBuffer().get(docs);
+				buffer.position(buffer.position() + docs.length * 4);
+				buffer.asIntBuffer().get(grades);
+				buffer.position(buffer.position() + grades.length * 4);
+				qrels.setJudgements(query, docs, grades);
+			}
+			return qrels;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param queryDocs: judged documents of every query, indexed by query number
+	 * @param queryGrades: grade of every judged document
+	 */
+	static void writeQrels(Path snapshotDir, File source, int[][] queryDocs, int[][] queryGrades) throws IOException {
+
+		int count = 0;
+		for (int[] docs : queryDocs) if (docs.length > 0) count++;
+
+		DataOutputStream out = create(snapshotDir, source, QRELS);
+		try {
+
+			out.writeInt(count);
+			for (int query = 0; query < queryDocs.length; query++) {
+
+				if (queryDocs[query].length == 0) continue;
+				out.writeInt(query);
+				out.writeInt(queryDocs[query].length);
+				for (int doc : queryDocs[query]) out.writeInt(doc);
+				for (int grade : queryGrades[query]) out.writeInt(grade);
+			}
+		}
+		finally {
+			out.close();
+		}
+		commit(snapshotDir, source);
+	}
+
+	private static Path snapshotFile(Path snapshotDir, File source) {
+
+		// Sources of different data directories share a name, so tell them apart by path
+		String path = source.getAbsolutePath();
+		return snapshotDir.resolve(source.getName() + "-" + Integer.toHexString(path.hashCode()) + ".snap");
+	}
+
+	/**
+	 * Map the snapshot of a source into memory
+	 * @return the snapshot positioned after its header, or null if it is missing or was taken from another version of the source
+	 */
+	private static ByteBuffer open(Path snapshotDir, File source, int kind) throws IOException {
+
+		Path snapshotFile = snapshotFile(snapshotDir, source);
+		if (!Files.exists(snapshotFile)) return null;
+
+		FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+		ByteBuffer buffer;
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			channel.close();
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != kind) return null;
+			if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) return null;
+			if (!getString(buffer, new byte[256]).equals(source.getAbsolutePath())) return null;
+			return buffer;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Start writing a snapshot into a temporary file, so a failed write never leaves a truncated snapshot
+	 */
+	private static DataOutputStream create(Path snapshotDir, File source, int kind) throws IOException {
+
+		File dir = snapshotDir.toFile();
+		if (!dir.exists()) dir.mkdirs();
+
+		Path snapshotFile = snapshotFile(snapshotDir, source);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp")), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(kind);
+		out.writeLong(source.length());
+		out.writeLong(source.lastModified());
+		putString(out, source.getAbsolutePath());
+		return out;
+	}
+
+	private static void commit(Path snapshotDir, File source) throws IOException {
+
+		Path snapshotFile = snapshotFile(snapshotDir, source);
+		Files.move(snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp"), snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void putString(DataOutputStream out, String value) throws IOException {
+
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Decode a length prefixed string, reusing the scratch array when it is large enough
+	 */
+	private static String getString(ByteBuffer buffer, byte[] scratch) {
+
+		int length = buffer.getInt();
+		byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+		buffer.get(bytes, 0, length);
+		return new String(bytes, 0, length, UTF8);
+	}
+}
@@ -0,0 +1,159 @@
+package tcd;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens the directories the Indexer writes to and the SearchService reads from, so the storage of an
+ * index is chosen in one place:
+ *
+ *    fs       FSDirectory.open(), the best implementation for the platform
+ *    mmap     MMapDirectory, optionally loading every mapped file into physical memory when it is opened
+ *    nio      NIOFSDirectory, positional reads through a FileChannel
+ *    memory   ByteBuffersDirectory on the heap. An index built in this mode never touches the disk, and an
+ *             index that exists on disk is copied into memory the first time it is opened.
+ *
+ * In memory mode the factory keeps every index it opened for as long as it lives, so the Indexer and the
+ * SearchService must share the factory. Closing a directory opened in memory mode leaves its index in place.
+ * The default factory uses the type of the "tcd.directory" system property, fs if it is not set.
+ *
+ */
+public class DirectoryFactory {
+
+	public static final String FS = "fs";
+	public static final String MMAP = "mmap";
+	public static final String NIO = "nio";
+	public static final String MEMORY = "memory";
+	public static final String TYPE_PROPERTY = "tcd.directory";
+
+	private static DirectoryFactory defaultFactory = null;
+
+	private final String type;
+	private boolean preload = true;
+	private final Map<Path, Directory> memoryDirectories = new HashMap<Path, Directory>();
+
+	/**
+	 * @param type: one of fs, mmap, nio and memory
+	 */
+	public DirectoryFactory(String type) {
+
+		if (!type.equals(FS) && !type.equals(MMAP) && !type.equals(NIO) && !type.equals(MEMORY))
+			throw new IllegalArgumentException("Unknown directory type " + type + ", expected fs, mmap, nio or memory");
+		this.type = type;
+	}
+
+	/**
+	 * @return the factory shared by the Indexer and the SearchService unless they are given another one
+	 */
+	public static synchronized DirectoryFactory getDefault() {
+
+		if (defaultFactory == null) defaultFactory = new DirectoryFactory(System.getProperty(TYPE_PROPERTY, FS));
+		return defaultFactory;
+	}
+
+	/**
+	 * @param preload: in mmap mode, read every file into physical memory when it is mapped, so the first
+	 * queries do not page it in
+	 */
+	public DirectoryFactory setPreload(boolean preload) {
+
+		this.preload = preload;
+		return this;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @param path: location of the index
+	 * @return the directory of the index, created if it does not exist
+	 * @throws IOException
+	 */
+	public Directory open(Path path) throws IOException {
+
+		if (type.equals(MMAP)) {
+
+			MMapDirectory directory = new MMapDirectory(path);
+			directory.setPreload(preload);
+			return directory;
+		}
+		if (type.equals(NIO)) return new NIOFSDirectory(path);
+		if (type.equals(MEMORY)) return openInMemory(path.toAbsolutePath().normalize());
+		return FSDirectory.open(path);
+	}
+
+	/**
+	 * @return true if an index may exist at the path, in memory or on disk
+	 */
+	public boolean exists(Path path) {
+
+		if (type.equals(MEMORY)) {
+
+			synchronized (memoryDirectories) {
+				if (memoryDirectories.containsKey(path.toAbsolutePath().normalize())) return true;
+			}
+		}
+		return Files.isDirectory(path);
+	}
+
+	private Directory openInMemory(Path path) throws IOException {
+
+		synchronized (memoryDirectories) {
+
+			Directory directory = memoryDirectories.get(path);
+			if (directory == null) {
+
+				ByteBuffersDirectory memoryDirectory = new ByteBuffersDirectory();
+				if (Files.isDirectory(path)) {
+
+					// Pin an index built on disk in memory
+					Directory diskDirectory = FSDirectory.open(path);
+					try {
+						for (String file : diskDirectory.listAll())
+							if (!file.equals(IndexWriter.WRITE_LOCK_NAME)) memoryDirectory.copyFrom(diskDirectory, file, file, IOContext.READONCE);
+					}
+					finally {
+						diskDirectory.close();
+					}
+				}
+
+				// The index must outlive the Indexer and SearchService closing their directory
+				directory = new FilterDirectory(memoryDirectory) {
+
+					@Override
+					public void close() {
+					}
+				};
+				memoryDirectories.put(path, directory);
+			}
+			return directory;
+		}
+	}
+
+	/**
+	 * Forget an index kept in memory, freeing its memory
+	 * @param path: location the index was opened at
+	 * @throws IOException
+	 */
+	public void release(Path path) throws IOException {
+
+		Directory directory;
+		synchronized (memoryDirectories) {
+			directory = memoryDirectories.remove(path.toAbsolutePath().normalize());
+		}
+		if (directory != null) ((FilterDirectory) directory).getDelegate().close();
+	}
+}
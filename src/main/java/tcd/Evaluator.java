@@ -2,6 +2,10 @@ package tcd;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implements evaluation functionality. May use TREC Eval instead.
@@ -9,67 +13,216 @@ import java.util.Map.Entry;
  */
 public class Evaluator {
 	
+	// Metrics computed for every query, in the order they are reported
+	private static final String[] METRIC_NAMES = {"MAP", "Mean Recall", "P@5", "P@10", "P@20", "R-Precision", "bpref", "MRR", "nDCG@", "nDCG"};
+	private static final int AP = 0, RECALL = 1, P5 = 2, P10 = 3, P20 = 4, R_PRECISION = 5, BPREF = 6, RR = 7, NDCG_AT_K = 8, NDCG = 9;
+	
+	private int ndcgDepth = 10;
+	private Metrics metrics = null;
+	
+	/**
+	 * @param ndcgDepth: rank cut-off k of the nDCG@k metric
+	 */
+	public void setNdcgDepth(int ndcgDepth) {
+		
+		this.ndcgDepth = ndcgDepth;
+	}
+	
 	/**
-	 * Calculate MAP and Mean Recall
+	 * @param metrics: registry receiving the time taken by each evaluation, or null to not measure
+	 */
+	public void setMetrics(Metrics metrics) {
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Calculate MAP and Mean Recall, along with the other metrics of calculateMetrics(int[][], Qrels, int)
 	 * @param resultDict: dictionary of results obtained from Searcher wrapper
 	 * @param cranRelDict: Reference cran query results dictionary
 	 * @return
 	 */
 	Map<String, Double> calculateMetrics(Map<String, List<String>> resultDict, Map<String, List<List<String>>> cranRelDict) {
 		
-		Map<String, Double> metrics = new HashMap<String, Double>();
+		return calculateMetrics(toRun(resultDict), Qrels.fromCranRelDict(cranRelDict), 1);
+	}
+	
+	/**
+	 * Calculate every metric with graded judgements
+	 * @param resultDict: dictionary of results obtained from Searcher wrapper
+	 * @param qrels: graded judgements, see FileIO.parseCranQrels()
+	 * @return metrics keyed by name
+	 */
+	Map<String, Double> calculateMetrics(Map<String, List<String>> resultDict, Qrels qrels) {
+		
+		return calculateMetrics(toRun(resultDict), qrels, 1);
+	}
+	
+	/**
+	 * Calculate MAP, Mean Recall, P@5, P@10, P@20, R-Precision, bpref, MRR, nDCG@k and nDCG, averaged over
+	 * the queries of a run that have judgements. Every metric of a query is computed in a single pass over
+	 * its ranking, following the TREC Eval definitions:
+	 * the average precision of a query is the sum of the precisions at each relevant document retrieved,
+	 * divided by the number of relevant documents of the query, and nDCG uses the graded gains of Qrels.
+	 * @param run: ranked document ids of each query, indexed by query number, null for queries not searched
+	 * @param qrels: relevancy judgements
+	 * @param threads: number of threads evaluating queries, 1 evaluates on the calling thread
+	 * @return metrics keyed by name
+	 */
+	Map<String, Double> calculateMetrics(final int[][] run, final Qrels qrels, int threads) {
 		
-		List<Double> avgPrecisionList = new ArrayList<Double>();
-		List<Double> recallList = new ArrayList<Double>();
-		Iterator<Entry<String, List<String>>> resultEntry = resultDict.entrySet().iterator();
+		long startNanos = System.nanoTime();
+		final double[][] perQuery = new double[METRIC_NAMES.length][run.length];
 		
-		// Loop through each results
-		while (resultEntry.hasNext()) {
+		if (threads <= 1) evaluateQueries(run, qrels, 0, run.length, perQuery);
+		else {
 			
-			Entry<String, List<String>> resultPair = (Entry<String, List<String>>) resultEntry.next();
-			String resultID = resultPair.getKey();
-			List<String> resultList = resultPair.getValue();
-			
-			List<List<String>> cranRelList = cranRelDict.get(resultID);
-			List<String> cranRelRelevantList = cranRelList.get(0);
+			// Every thread evaluates a contiguous range of queries into its own slots of the arrays
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				int chunk = (run.length + threads - 1) / threads;
+				for (int start = 0; start < run.length; start += chunk) {
+					
+					final int from = start;
+					final int to = Math.min(start + chunk, run.length);
+					futures.add(executor.submit(new Runnable() {
 						
-			List<Double> precisionList = new ArrayList<Double>();
+						@Override
+						public void run() {
+							evaluateQueries(run, qrels, from, to, perQuery);
+						}
+					}));
+				}
+				for (Future<?> future : futures) future.get();
+			}
+			catch (InterruptedException e) {
+				
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while evaluating", e);
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Evaluation thread failed", e.getCause());
+			}
+			finally {
+				executor.shutdownNow();
+			}
+		}
+		
+		// Sum in query order, so the result does not depend on the number of threads
+		double[] means = new double[METRIC_NAMES.length];
+		int queryCount = 0;
+		for (int query = 0; query < run.length; query++) {
+			
+			if (run[query] == null || qrels.relevantCount(query) == 0) continue;
+			for (int m = 0; m < means.length; m++) means[m] += perQuery[m][query];
+			queryCount++;
+		}
+		
+		Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+		for (int m = 0; m < means.length; m++) {
+			
+			String name = m == NDCG_AT_K ? METRIC_NAMES[m] + ndcgDepth : METRIC_NAMES[m];
+			metrics.put(name, queryCount > 0 ? means[m] / queryCount : 0.0);
+		}
+		if (this.metrics != null) this.metrics.record("evaluate", System.nanoTime() - startNanos);
+		return metrics;
+	}
+	
+	/**
+	 * Compute every metric of the queries in [from, to)
+	 */
+	private void evaluateQueries(int[][] run, Qrels qrels, int from, int to, double[][] perQuery) {
+		
+		for (int query = from; query < to; query++) {
+			
+			int[] ranked = run[query];
+			int relevantCount = qrels.relevantCount(query);
+			if (ranked == null || relevantCount == 0) continue;
+			int nonRelevantCount = qrels.nonRelevantCount(query);
+			int bprefDenominator = Math.min(relevantCount, nonRelevantCount);
+			
 			int docCount = 0;
-			double recall = 0.0;
-			for (int i = 0; i < resultList.size(); i++) {
+			int nonRelevantAbove = 0;
+			double precisionSum = 0.0;
+			double bprefSum = 0.0;
+			double dcg = 0.0;
+			double dcgAtK = 0.0;
+			for (int i = 0; i < ranked.length; i++) {
 				
-				String docID = resultList.get(i);
-				if (cranRelRelevantList.contains(docID)) {
+				int grade = qrels.grade(query, ranked[i]);
+				if (grade == Qrels.NOT_JUDGED) continue;
+				
+				int gain = Qrels.gain(grade);
+				if (gain > 0) {
+					
+					double discounted = gain / log2(i + 2);
+					dcg += discounted;
+					if (i < ndcgDepth) dcgAtK += discounted;
+				}
+				
+				if (Qrels.isRelevantGrade(grade)) {
+					
 					docCount++;
-					precisionList.add((double) docCount / (i + 1));
-					recall = docCount / cranRelRelevantList.size();
-				}				
+					precisionSum += (double) docCount / (i + 1);
+					if (docCount == 1) perQuery[RR][query] = 1.0 / (i + 1);
+					if (i < 5) perQuery[P5][query]++;
+					if (i < 10) perQuery[P10][query]++;
+					if (i < 20) perQuery[P20][query]++;
+					if (i < relevantCount) perQuery[R_PRECISION][query]++;
+					bprefSum += bprefDenominator > 0 ? 1.0 - (double) Math.min(nonRelevantAbove, relevantCount) / bprefDenominator : 1.0;
+				}
+				else nonRelevantAbove++;
 			}
 			
-			double avgPrecision = 0.0;
-			if (precisionList.size() > 0) { 
+			perQuery[AP][query] = precisionSum / relevantCount;
+			perQuery[RECALL][query] = (double) docCount / relevantCount;
+			perQuery[P5][query] /= 5;
+			perQuery[P10][query] /= 10;
+			perQuery[P20][query] /= 20;
+			perQuery[R_PRECISION][query] /= relevantCount;
+			perQuery[BPREF][query] = bprefSum / relevantCount;
+			
+			// Ideal rankings place the judged documents by decreasing gain
+			int[] idealGains = qrels.idealGains(query);
+			double idealDcg = 0.0;
+			double idealDcgAtK = 0.0;
+			for (int i = 0; i < idealGains.length && idealGains[i] > 0; i++) {
 				
-				for (int i = 0; i < precisionList.size(); i++) avgPrecision += precisionList.get(i);
-				avgPrecision /= precisionList.size();
+				double discounted = idealGains[i] / log2(i + 2);
+				idealDcg += discounted;
+				if (i < ndcgDepth) idealDcgAtK += discounted;
 			}
-
-			avgPrecisionList.add(avgPrecision); 
-			recallList.add(recall);
+			perQuery[NDCG][query] = idealDcg > 0 ? dcg / idealDcg : 0.0;
+			perQuery[NDCG_AT_K][query] = idealDcgAtK > 0 ? dcgAtK / idealDcgAtK : 0.0;
 		}
+	}
+	
+	private static double log2(int x) {
 		
-		// Calculate MAP
-		double map = 0.0;
-		for (int i = 0; i < avgPrecisionList.size(); i++) map += avgPrecisionList.get(i);
-		map /= avgPrecisionList.size();
+		return Math.log(x) / Math.log(2);
+	}
 	
-		// Calculate Mean Recall
-		double meanRecall = 0.0;
-		for (int i = 0; i < recallList.size(); i++) meanRecall += recallList.get(i);
-		meanRecall /= recallList.size();
+	/**
+	 * Convert results of the Searcher wrapper into a run indexed by query number
+	 * @param resultDict: dictionary of results obtained from Searcher wrapper
+	 * @return ranked document ids of each query
+	 */
+	static int[][] toRun(Map<String, List<String>> resultDict) {
 		
-		metrics.put("MAP", map);
-		metrics.put("Mean Recall", meanRecall);
-		return metrics;
+		int maxQuery = 0;
+		for (String query : resultDict.keySet()) maxQuery = Math.max(maxQuery, Integer.parseInt(query));
+		
+		int[][] run = new int[maxQuery + 1][];
+		for (Entry<String, List<String>> resultPair : resultDict.entrySet()) {
+			
+			List<String> resultList = resultPair.getValue();
+			int[] ranked = new int[resultList.size()];
+			for (int i = 0; i < ranked.length; i++) ranked[i] = Integer.parseInt(resultList.get(i));
+			run[Integer.parseInt(resultPair.getKey())] = ranked;
+		}
+		return run;
 	}
 
 
@@ -0,0 +1,116 @@
+package tcd;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs every analyzer and similarity combination on the cran collection. The corpus is parsed once
+ * and indexed once per analyzer, then each index is searched with every similarity.
+ *
+ */
+public class Experiment {
+
+	public static final String[] ANALYZERS = {"Standard", "Keyword", "WhiteSpace", "Simple", "Stop", "English"};
+	public static final String[] SIMILARITIES = {"TFIDF", "BM25"};
+
+	/**
+	 * Build the indexes of every analyzer and evaluate them with every similarity
+	 * @param dataDir: the path of data
+	 * @param indexDir: directory receiving one index per analyzer
+	 * @param analyzers: lucene analyzers to compare
+	 * @param similarities: lucene similarities to compare
+	 * @param hpp: hits per page to use
+	 * @param options: indexing options
+	 * @return metrics of every combination, keyed by "analyzer/similarity"
+	 * @throws ParseException
+	 */
+	public Map<String, Map<String, Double>> runGrid(String dataDir, Path indexDir, String[] analyzers, String[] similarities, String hpp, IndexOptions options) throws ParseException {
+
+		FileIO fileIO = new FileIO();
+		fileIO.setSnapshotDir(Paths.get("cache"));
+		System.out.println("Deleting previous index files, if they exist...");
+		fileIO.deleteDir(indexDir.toFile());
+
+		System.out.println("Parsing CRAN data once for " + analyzers.length + " analyzers...");
+		CranParser cranParser = fileIO.streamCran(dataDir);
+		new Indexer().createCranIndexes(indexDir, cranParser, analyzers, options);
+		try {
+			cranParser.close();
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		List<Map<String, String>> cranQueryList = fileIO.parseCranQueries(dataDir);
+		Qrels qrels = fileIO.parseCranQrels(dataDir);
+		Searcher searcher = new Searcher();
+		// Every similarity of an analyzer reuses its parsed queries
+		searcher.setQueryCacheDir(Paths.get("cache"));
+		Evaluator evaluator = new Evaluator();
+
+		Map<String, Map<String, Double>> gridMetrics = new LinkedHashMap<String, Map<String, Double>>();
+		for (String analyzer : analyzers) {
+
+			try {
+
+				// Every similarity shares the index of the analyzer
+				SearchService searchService = new SearchService(indexDir.resolve(analyzer));
+				try {
+					for (String similarity : similarities) {
+
+						Map<String, List<String>> resultDict = searcher.searchCranQueries(searchService, cranQueryList, analyzer, similarity, hpp,
+								Runtime.getRuntime().availableProcessors());
+						gridMetrics.put(analyzer + "/" + similarity, evaluator.calculateMetrics(resultDict, qrels));
+					}
+				}
+				finally {
+					searchService.close();
+				}
+			}
+			catch (IOException e) {
+
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		return gridMetrics;
+	}
+
+	/**
+	 * Print the metrics of every combination as a table
+	 */
+	public void printGrid(Map<String, Map<String, Double>> gridMetrics) {
+
+		System.out.println(String.format("%-24s %-12s %-12s %-12s %-12s %-12s", "analyzer/similarity", "MAP", "Mean Recall", "P@10", "bpref", "nDCG@10"));
+		for (Map.Entry<String, Map<String, Double>> entry : gridMetrics.entrySet()) {
+
+			Map<String, Double> metrics = entry.getValue();
+			System.out.println(String.format("%-24s %-12.4f %-12.4f %-12.4f %-12.4f %-12.4f", entry.getKey(), metrics.get("MAP"), metrics.get("Mean Recall"),
+					metrics.get("P@10"), metrics.get("bpref"), metrics.get("nDCG@10")));
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args: Command line arguments
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws ParseException {
+
+		String dataDir = "data/cran";
+		String hpp = "1000";
+		Path indexDir = Paths.get("index/grid");
+
+		Experiment experiment = new Experiment();
+		Map<String, Map<String, Double>> gridMetrics = experiment.runGrid(dataDir, indexDir, ANALYZERS, SIMILARITIES, hpp, new IndexOptions());
+		experiment.printGrid(gridMetrics);
+	}
+}
@@ -2,10 +2,12 @@ package tcd;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.Map.Entry;
@@ -17,13 +19,58 @@ import java.util.Map.Entry;
 
 public class FileIO {
 	
+	private Path snapshotDir = null;
+	
+	/**
+	 * Keep binary snapshots of the parsed documents, queries and judgements, so later parses of an
+	 * unchanged file just map its snapshot
+	 * @param snapshotDir: directory of the snapshots, or null to always parse the text files
+	 */
+	public void setSnapshotDir(Path snapshotDir) {
+		
+		this.snapshotDir = snapshotDir;
+	}
+	
 	/**
-	 * Parse Cran Documents
-	 * @return list of structured cran documents with key-value pairs.
+	 * Parse Cran Documents. Snapshots are only used for a single cran.all.1400 file, a directory of
+	 * corpus files is parsed every time.
+	 * @return list of structured cran documents.
 	 */
-	public List<Map<String, String>> parseCran(String dataDir) {
+	public List<CranDocument> parseCran(String dataDir) {
 		
-		List<Map<String, String>> cranList = new ArrayList<Map<String, String>>();		
+		List<CranDocument> cranList = null;
+		try {
+			
+			if (!(new File(dataDir).exists() && new File(dataDir).isDirectory())) dataDir = "data/cran";
+			File file = new File(dataDir + "/cran.all.1400");
+			// A snapshot only checks the size and modification time of one file, which would never see edits to the other corpus files
+			boolean useSnapshot = snapshotDir != null && file.isFile();
+			if (useSnapshot && (cranList = CranSnapshot.readDocuments(snapshotDir, file)) != null) {
+				
+				System.out.println("Using snapshot of " + file);
+				return cranList;
+			}
+			
+			cranList = new ArrayList<CranDocument>();
+			ParallelCranParser cranParser = streamCranParallel(dataDir, Runtime.getRuntime().availableProcessors());
+			while (cranParser.hasNext()) cranList.add(cranParser.next());
+			cranParser.close();
+			if (useSnapshot) CranSnapshot.writeDocuments(snapshotDir, file, cranList);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return cranList;
+	}
+	
+	/**
+	 * Stream Cran Documents, one document at a time. The caller must close the returned parser.
+	 * @return streaming parser over the structured cran documents.
+	 */
+	public CranParser streamCran(String dataDir) {
+		
+		CranParser cranParser = null;
 		try {
 			
 			if (!(new File(dataDir).exists() && new File(dataDir).isDirectory())) dataDir = "data/cran";
@@ -31,121 +78,38 @@ public class FileIO {
 			System.out.println("Using data stored in " + dataDir);
 			// File related objects
 			File file = new File(dataDir + "/cran.all.1400");
-			FileReader fileReader = new FileReader(file);
-			BufferedReader bufferedReader = new BufferedReader(fileReader);
-			
-			// Dictionary for storing parsed data
-			Map<String, String> cranDict = new HashMap<String, String>();
+			cranParser = new CranParser(new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))));
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return cranParser;
+	}
+	
+	/**
+	 * Stream Cran Documents parsed on several threads, in the same order as streamCran. The caller must
+	 * close the returned parser.
+	 * @param source: directory holding cran.all.1400, a cran file, or a directory of cran files which may be gzip compressed
+	 * @param threads: number of chunks parsed at once
+	 * @return streaming parser over the structured cran documents.
+	 */
+	public ParallelCranParser streamCranParallel(String source, int threads) {
+		
+		ParallelCranParser cranParser = null;
+		try {
 			
-			String line;
-			String next = ".I";
-			int lineNumber = 0;
+			if (!new File(source).exists()) source = "data/cran";
 			
-			String id = "";
-			String title = "";
-			String authors = "";
-			String locations = "";
-			String abst = "";
-			// Loop through each line
-			while ((line = bufferedReader.readLine()) != null) {
-				
-				lineNumber++;
-				
-				String[] words = line.split("\\s+");
-				switch (words[0]) {
-					
-				// Check the current line's tag, save the next tag and perform operations
-				case ".I":
-					if (next != ".I") printParseError(lineNumber);
-					assert (Integer.parseInt(words[1]) - 1) == cranList.size();
-					if (lineNumber > 1) {
-						
-						cranDict.put("ID", id);
-						cranDict.put("Abstract", abst);
-						cranList.add(cranDict);
-						cranDict = new HashMap<String, String>();
-					}
-					id = words[1];
-					abst = "";
-					next = ".T";
-					break;
-				
-				case ".T":
-					if (next != ".T") printParseError(lineNumber);
-					next = ".A";
-					break;
-					
-				case ".A":
-					if (next != ".A") {
-						
-						if (next == ".I") break;
-						printParseError(lineNumber);
-					}
-					cranDict.put("Title", title);
-					title = "";
-					next = ".B";
-					break;
-					
-				case ".B":
-					if (next != ".B") {
-						
-						if (next == ".I") break;
-						printParseError(lineNumber);
-					}
-					cranDict.put("Authors", authors);
-					authors = "";
-					next = ".W";
-					break;
-					
-				case ".W":
-					if (next != ".W") {
-						
-						if (next == ".I") break;
-						printParseError(lineNumber);
-					}
-					cranDict.put("Locations", locations);
-					locations = "";
-					next = ".I";
-					break;
-					
-				default:
-					switch(next) {
-					
-					// Check the current tag, and perform operations
-					case ".A":
-						title += line + " ";
-						break;
-						
-					case ".B":
-						authors += line + " ";
-						break;
-						
-					case ".W":
-						locations += line + " ";
-						break;
-						
-					case ".I":
-						abst += line + " ";
-						break;
-						
-					default:
-						printParseError(lineNumber);
-					}
-				}
-			}
-
-			// Add the last entry
-			cranDict.put("ID", id);
-			cranDict.put("Abstract", abst);
-			cranList.add(cranDict);
-			
-			fileReader.close();
+			System.out.println("Using data stored in " + source);
+			File file = new File(source, "cran.all.1400");
+			cranParser = new ParallelCranParser(file.isFile() ? file.toPath() : Paths.get(source), threads);
 		}
 		catch(IOException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		return cranList;
+		return cranParser;
 	}
 	
 	private void printParseError(int lineNumber) {
@@ -164,11 +128,16 @@ public class FileIO {
 			
 			if (!(new File(dataDir).exists() && new File(dataDir).isDirectory())) dataDir = "data/cran.tar";
 			
-			System.out.println("Using data stored in " + dataDir);
 			// File related objects
 			File file = new File(dataDir + "/cran.qry");
-			FileReader fileReader = new FileReader(file);
-			BufferedReader bufferedReader = new BufferedReader(fileReader);
+			List<Map<String, String>> snapshot = snapshotDir != null ? CranSnapshot.readQueries(snapshotDir, file) : null;
+			if (snapshot != null) {
+				
+				System.out.println("Using snapshot of " + file);
+				return snapshot;
+			}
+			System.out.println("Using data stored in " + dataDir);
+			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
 			
 			// Dictionary for storing parsed data
 			Map<String, String> cranQueryDict = new HashMap<String, String>();
@@ -186,11 +155,10 @@ public class FileIO {
 				lineNumber++;
 				
 				line = line.replace("?", "");
-				String[] words = line.split("\\s+");
-				switch (words[0]) {
+				switch (CranParser.tagOf(line)) {
 					
 				// Check the current line's tag, save the next tag and perform operations
-				case ".I":
+				case 'I':
 					if (next != ".I") printParseError(lineNumber);
 					if (lineNumber > 1) {
 						
@@ -200,13 +168,13 @@ public class FileIO {
 						cranQueryList.add(cranQueryDict);
 						cranQueryDict = new HashMap<String, String>();
 					}
-					id = words[1];
+					id = CranParser.secondWord(line);
 					queryNo++;
 					query = "";
 					next = ".W";
 					break;
 				
-				case ".W":
+				case 'W':
 					if (next != ".W") printParseError(lineNumber);
 					next = ".I";
 					break;
@@ -231,7 +199,8 @@ public class FileIO {
 			cranQueryDict.put("Query", query);
 			cranQueryList.add(cranQueryDict);
 			
-			fileReader.close();
+			bufferedReader.close();
+			if (snapshotDir != null) CranSnapshot.writeQueries(snapshotDir, file, cranQueryList);
 		}
 		catch(IOException e) {
 			
@@ -242,7 +211,7 @@ public class FileIO {
 	}
 
 	/**
-	 * Parse Cran Relevancy Judgements
+	 * Parse Cran Relevancy Judgements. They are read through parseCranQrels(), and so through its snapshot.
 	 * @return relevant and irrelevant documents for each queries along with their relevancy judgements in a key-value pair
 	 */
 	public Map<String, List<List<String>>> parseCranRel(String dataDir) {
@@ -250,49 +219,33 @@ public class FileIO {
 		Map<String, List<List<String>>> cranRelDict = new HashMap<String, List<List<String>>>();
 		try {
 			
-			if (!(new File(dataDir).exists() && new File(dataDir).isDirectory())) dataDir = "data/cran.tar";
-			
-			System.out.println("Using data stored in " + dataDir);
-			// File related objects
-			File file = new File(dataDir + "/cranqrel");
-			FileReader fileReader = new FileReader(file);
-			BufferedReader bufferedReader = new BufferedReader(fileReader);
-			
-			String line;
+			Qrels qrels = parseCranQrels(dataDir);
 			List<String> refFileContent = new ArrayList<String>();
-			// Loop through each line
-			while ((line = bufferedReader.readLine()) != null) {
-								
-				String[] words = line.split("\\s+");
-				refFileContent.add(words[0] + " 0 " + words[1] + " " + words[2]);
+			for (int query = 0; query <= qrels.maxQuery(); query++) {
 				
-				List<List<String>> relevancy = cranRelDict.get(words[0]);
-				// Check if the query's judgements are being stored for the first time
-				if (relevancy == null) {
-					
-					relevancy = new ArrayList<List<String>>();
-					List<String> relevant = new ArrayList<String>();
-					List<String> irrelevant = new ArrayList<String>();
-					
-					if (Integer.parseInt(words[2]) <= 3)
-						relevant.add(words[1]);
-					else
-						irrelevant.add(words[1]);
-					
-					relevancy.add(relevant);
-					relevancy.add(irrelevant);
-					cranRelDict.put(words[0], relevancy);
-				}
-				else {
+				int[] docs = qrels.judgedDocs(query);
+				if (docs.length == 0) continue;
+				int[] grades = qrels.judgedGrades(query);
+				
+				List<String> relevant = new ArrayList<String>();
+				List<String> irrelevant = new ArrayList<String>();
+				String queryId = Integer.toString(query);
+				for (int i = 0; i < docs.length; i++) {
 					
-					if (Integer.parseInt(words[2]) <= 3)
-						cranRelDict.get(words[0]).get(0).add(words[1]);
+					String doc = Integer.toString(docs[i]);
+					refFileContent.add(queryId + " 0 " + doc + " " + grades[i]);
+					if (Qrels.isRelevantGrade(grades[i]))
+						relevant.add(doc);
 					else
-						cranRelDict.get(words[0]).get(1).add(words[1]);
+						irrelevant.add(doc);
 				}
+				
+				List<List<String>> relevancy = new ArrayList<List<String>>();
+				relevancy.add(relevant);
+				relevancy.add(irrelevant);
+				cranRelDict.put(queryId, relevancy);
 			}
 			
-			fileReader.close();
 			Files.write(Paths.get("output/reference.txt"), refFileContent, Charset.forName("UTF-8"));
 			System.out.println("Reference file written to output/reference.txt to be used in TREC Eval.");
 		}
@@ -304,6 +257,108 @@ public class FileIO {
 		return cranRelDict;
 	}
 	
+	/**
+	 * Parse Cran Relevancy Judgements, keeping the relevancy grade of every judged document
+	 * @return graded judgements indexed by query number and document id
+	 */
+	public Qrels parseCranQrels(String dataDir) {
+		
+		Qrels qrels = new Qrels();
+		try {
+			
+			if (!(new File(dataDir).exists() && new File(dataDir).isDirectory())) dataDir = "data/cran";
+			
+			File file = new File(dataDir + "/cranqrel");
+			Qrels snapshot = snapshotDir != null ? CranSnapshot.readQrels(snapshotDir, file) : null;
+			if (snapshot != null) {
+				
+				System.out.println("Using snapshot of " + file);
+				return snapshot;
+			}
+			System.out.println("Using data stored in " + dataDir);
+			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+			
+			// Columns of every judgement, grown as needed
+			int[] queries = new int[1024];
+			int[] docs = new int[1024];
+			int[] grades = new int[1024];
+			int size = 0;
+			int maxQuery = 0;
+			
+			String line;
+			int[] columns = new int[3];
+			while ((line = bufferedReader.readLine()) != null) {
+				
+				if (parseInts(line, columns) < 3) continue;
+				if (size == queries.length) {
+					
+					queries = Arrays.copyOf(queries, size * 2);
+					docs = Arrays.copyOf(docs, size * 2);
+					grades = Arrays.copyOf(grades, size * 2);
+				}
+				queries[size] = columns[0];
+				docs[size] = columns[1];
+				grades[size] = columns[2];
+				maxQuery = Math.max(maxQuery, columns[0]);
+				size++;
+			}
+			bufferedReader.close();
+			
+			// Group the judgements by query
+			int[] counts = new int[maxQuery + 1];
+			for (int i = 0; i < size; i++) counts[queries[i]]++;
+			int[][] queryDocs = new int[maxQuery + 1][];
+			int[][] queryGrades = new int[maxQuery + 1][];
+			for (int query = 0; query <= maxQuery; query++) {
+				
+				queryDocs[query] = new int[counts[query]];
+				queryGrades[query] = new int[counts[query]];
+				counts[query] = 0;
+			}
+			for (int i = 0; i < size; i++) {
+				
+				int query = queries[i];
+				queryDocs[query][counts[query]] = docs[i];
+				queryGrades[query][counts[query]] = grades[i];
+				counts[query]++;
+			}
+			for (int query = 0; query <= maxQuery; query++)
+				if (queryDocs[query].length > 0) qrels.setJudgements(query, queryDocs[query], queryGrades[query]);
+			if (snapshotDir != null) CranSnapshot.writeQrels(snapshotDir, file, queryDocs, queryGrades);
+		}
+		catch(IOException e) {
+			
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return qrels;
+	}
+	
+	/**
+	 * Parse the whitespace separated integers of a line without a regex
+	 * @param line: line to parse
+	 * @param values: array receiving the integers
+	 * @return number of integers parsed, at most values.length
+	 */
+	static int parseInts(String line, int[] values) {
+		
+		int count = 0;
+		int i = 0;
+		int length = line.length();
+		while (count < values.length) {
+			
+			while (i < length && Character.isWhitespace(line.charAt(i))) i++;
+			if (i == length) break;
+			
+			boolean negative = line.charAt(i) == '-';
+			if (negative) i++;
+			int value = 0;
+			while (i < length && !Character.isWhitespace(line.charAt(i))) value = value * 10 + (line.charAt(i++) - '0');
+			values[count++] = negative ? -value : value;
+		}
+		return count;
+	}
+	
 	/**
 	 * Get maximum number of documents for the given queries in cran relevancy file
 	 * @param cranRelDict: the output of parseCranRel() method
@@ -348,7 +403,7 @@ public class FileIO {
 		
 		FileIO fio = new FileIO();
 		
-//		List<Map<String, String>> cranList = fio.parseCran();
+//		List<CranDocument> cranList = fio.parseCran("data/cran");
 //		System.out.println(cranList.get(0));
 
 //		List<Map<String, String>> cranQueryList = fio.parseCranQueries();
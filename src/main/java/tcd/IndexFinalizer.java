@@ -0,0 +1,273 @@
+package tcd;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene86.Lucene86Codec;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a finished index into a read-optimized copy for serving. The copy is written by a new index
+ * writer that adds the segments of the index, so its segments can be merged down to a target count and
+ * its stored fields compressed for speed or for size. Deleted documents are dropped on the way.
+ *
+ * The copy keeps the index sort of the index. Lucene can only add segments that are already sorted the
+ * way the writer sorts, so sorting by ID is chosen when building the index, with IndexOptions.setSortById().
+ *
+ * The report compares the size, segment count and latency of the index before and after. Query latency
+ * is the time to find the top hits of every cran query; fetch latency is the time to load the stored
+ * fields of the top 10 hits, which depends on the stored fields compression.
+ *
+ */
+public class IndexFinalizer {
+
+	private static final int FETCHED_HITS = 10;
+	private static final int LATENCY_ROUNDS = 10;
+
+	private int maxSegments = 1;
+	private Lucene50StoredFieldsFormat.Mode storedFieldsMode = Lucene50StoredFieldsFormat.Mode.BEST_SPEED;
+	private DirectoryFactory directoryFactory = null;
+
+	/**
+	 * @param maxSegments: number of segments the index is merged down to
+	 */
+	public IndexFinalizer setMaxSegments(int maxSegments) {
+
+		if (maxSegments < 1) throw new IllegalArgumentException("maxSegments must be at least 1, got " + maxSegments);
+		this.maxSegments = maxSegments;
+		return this;
+	}
+
+	/**
+	 * @param storedFieldsMode: BEST_SPEED for fast document fetches, BEST_COMPRESSION for a smaller index
+	 */
+	public IndexFinalizer setStoredFieldsMode(Lucene50StoredFieldsFormat.Mode storedFieldsMode) {
+
+		this.storedFieldsMode = storedFieldsMode;
+		return this;
+	}
+
+	/**
+	 * @param directoryFactory: storage of both indexes, null for the default one
+	 */
+	public IndexFinalizer setDirectoryFactory(DirectoryFactory directoryFactory) {
+
+		this.directoryFactory = directoryFactory;
+		return this;
+	}
+
+	/**
+	 * Write the read-optimized copy of an index. Each shard of a sharded index is finalized on its own.
+	 * @param indexFile: location of the index to finalize, left untouched
+	 * @param finalFile: location of the copy, replaced if it exists
+	 * @param cranQueryList: queries timed before and after, or null to only compare sizes
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public void finalizeIndex(Path indexFile, Path finalFile, List<Map<String, String>> cranQueryList) throws IOException, ParseException {
+
+		DirectoryFactory factory = directoryFactory != null ? directoryFactory : DirectoryFactory.getDefault();
+		if (factory.exists(indexFile.resolve("shard-0"))) {
+
+			for (int i = 0; factory.exists(indexFile.resolve("shard-" + i)); i++)
+				finalizeIndex(indexFile.resolve("shard-" + i), finalFile.resolve("shard-" + i), cranQueryList);
+			return;
+		}
+
+		Directory directory = factory.open(indexFile);
+		Directory finalDirectory = factory.open(finalFile);
+		try {
+
+			Report before = report(directory);
+			long start = System.nanoTime();
+			Sort indexSort = rewrite(directory, finalDirectory);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Report after = report(finalDirectory);
+			if (cranQueryList != null) timeQueries(cranQueryList, new Directory[] {directory, finalDirectory}, new Report[] {before, after});
+
+			System.out.println("Finalized " + indexFile + " into " + finalFile + " in " + String.format("%.3f", seconds) + " s ("
+					+ (indexSort != null ? "sorted by " + indexSort + ", " : "unsorted, ") + "at most " + maxSegments + " segment(s), " + storedFieldsMode + " stored fields).");
+			System.out.println(String.format("%-8s %-10s %-12s %-16s %-16s", "", "segments", "size (MB)", "query (us/op)", "fetch (us/op)"));
+			System.out.println(before.format("before"));
+			System.out.println(after.format("after"));
+		}
+		finally {
+
+			directory.close();
+			finalDirectory.close();
+		}
+	}
+
+	/**
+	 * @return the index sort of the copy, null if it is not sorted
+	 */
+	private Sort rewrite(Directory directory, Directory finalDirectory) throws IOException {
+
+		DirectoryReader ireader = DirectoryReader.open(directory);
+		try {
+
+			// Segments added by an incremental update without the index sort leave the copy unsorted
+			Sort indexSort = null;
+			for (int i = 0; i < ireader.leaves().size(); i++) {
+
+				Sort leafSort = ireader.leaves().get(i).reader().getMetaData().getSort();
+				if (i == 0) indexSort = leafSort;
+				else if (indexSort != null && !indexSort.equals(leafSort)) indexSort = null;
+			}
+
+			Map<String, String> userData = ireader.getIndexCommit().getUserData();
+			AnalysisRegistry registry = AnalysisRegistry.getDefault();
+			IndexWriterConfig config = new IndexWriterConfig(registry.getAnalyzer(userData.get("analyzer")));
+			config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+			config.setSimilarity(registry.getSimilarity(userData.get("similarity")));
+			config.setCodec(new Lucene86Codec(storedFieldsMode));
+			if (indexSort != null) config.setIndexSort(indexSort);
+
+			IndexWriter iwriter = new IndexWriter(finalDirectory, config);
+			try {
+
+				// Adding readers rather than directories lets the writer recompress every document
+				CodecReader[] readers = new CodecReader[ireader.leaves().size()];
+				for (int i = 0; i < readers.length; i++) readers[i] = SlowCodecReaderWrapper.wrap(ireader.leaves().get(i).reader());
+				iwriter.addIndexes(readers);
+				iwriter.forceMerge(maxSegments);
+
+				// Keep the analyzer, similarity and layout recorded by the Indexer
+				Map<String, String> commitData = new HashMap<String, String>(userData);
+				commitData.put("finalized", maxSegments + "," + storedFieldsMode);
+				iwriter.setLiveCommitData(commitData.entrySet());
+				iwriter.commit();
+			}
+			finally {
+				iwriter.close();
+			}
+			return indexSort;
+		}
+		finally {
+			ireader.close();
+		}
+	}
+
+	/**
+	 * @return size and segment count of an index
+	 */
+	private Report report(Directory directory) throws IOException {
+
+		Report report = new Report();
+		for (String file : directory.listAll()) report.bytes += directory.fileLength(file);
+		DirectoryReader ireader = DirectoryReader.open(directory);
+		try {
+			report.segments = ireader.leaves().size();
+		}
+		finally {
+			ireader.close();
+		}
+		return report;
+	}
+
+	/**
+	 * Time the queries on several indexes of the same documents. Every round searches each index in turn
+	 * and the best round of an index is kept, so no index pays alone for warming up the JIT and page cache.
+	 */
+	private void timeQueries(List<Map<String, String>> cranQueryList, Directory[] directories, Report[] reports) throws IOException, ParseException {
+
+		DirectoryReader[] ireaders = new DirectoryReader[directories.length];
+		try {
+
+			IndexSearcher[] isearchers = new IndexSearcher[directories.length];
+			for (int k = 0; k < directories.length; k++) {
+
+				ireaders[k] = DirectoryReader.open(directories[k]);
+				isearchers[k] = new IndexSearcher(ireaders[k]);
+				isearchers[k].setSimilarity(AnalysisRegistry.getDefault().getSimilarity(ireaders[k].getIndexCommit().getUserData().get("similarity")));
+				reports[k].queryNanos = Long.MAX_VALUE;
+				reports[k].fetchNanos = Long.MAX_VALUE;
+			}
+
+			Analyzer analyzer = AnalysisRegistry.getDefault().getAnalyzer(ireaders[0].getIndexCommit().getUserData().get("analyzer"));
+			QueryParser queryParser = Searcher.newQueryParser(analyzer, false);
+			Query[] queries = new Query[cranQueryList.size()];
+			for (int i = 0; i < queries.length; i++) queries[i] = queryParser.parse(cranQueryList.get(i).get("Query"));
+
+			for (int round = 0; round < LATENCY_ROUNDS; round++) {
+
+				for (int k = 0; k < isearchers.length; k++) {
+
+					long queryNanos = 0;
+					long fetchNanos = 0;
+					for (Query query : queries) {
+
+						long start = System.nanoTime();
+						TopDocs topDocs = isearchers[k].search(query, 1000);
+						long searched = System.nanoTime();
+						for (int j = 0; j < Math.min(FETCHED_HITS, topDocs.scoreDocs.length); j++) isearchers[k].doc(topDocs.scoreDocs[j].doc);
+						queryNanos += searched - start;
+						fetchNanos += System.nanoTime() - searched;
+					}
+					reports[k].queryNanos = Math.min(reports[k].queryNanos, queryNanos / queries.length);
+					reports[k].fetchNanos = Math.min(reports[k].fetchNanos, fetchNanos / queries.length);
+				}
+			}
+		}
+		finally {
+			for (DirectoryReader ireader : ireaders) if (ireader != null) ireader.close();
+		}
+	}
+
+	/**
+	 * Size and latency of an index.
+	 */
+	private static class Report {
+
+		long bytes = 0;
+		int segments = 0;
+		long queryNanos = -1;
+		long fetchNanos = -1;
+
+		String format(String name) {
+
+			return String.format("%-8s %-10d %-12.3f %-16s %-16s", name, segments, bytes / 1048576.0,
+					queryNanos < 0 ? "-" : String.format("%.1f", queryNanos / 1e3), fetchNanos < 0 ? "-" : String.format("%.1f", fetchNanos / 1e3));
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args: Command line arguments
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws ParseException {
+
+		FileIO fileIO = new FileIO();
+		fileIO.setSnapshotDir(Paths.get("cache"));
+		List<Map<String, String>> cranQueryList = fileIO.parseCranQueries("data/cran");
+		try {
+
+			new IndexFinalizer().finalizeIndex(Paths.get("index/cran.index"), Paths.get("index/cran.final"), cranQueryList);
+			new IndexFinalizer().setStoredFieldsMode(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION)
+					.finalizeIndex(Paths.get("index/cran.index"), Paths.get("index/cran.final-compressed"), cranQueryList);
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
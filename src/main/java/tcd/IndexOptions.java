@@ -0,0 +1,243 @@
+package tcd;
+
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.index.IndexWriterConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tuning options for the Indexer wrapper.
+ *
+ */
+public class IndexOptions {
+
+	private int threads = 1;
+	private double ramBufferSizeMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+	private int queueCapacity = 1024;
+	private int commitInterval = 0;
+	private boolean storeFields = true;
+	private boolean incremental = false;
+	private boolean combinedField = false;
+	private int shards = 1;
+	private DirectoryFactory directoryFactory = null;
+	private boolean sortById = false;
+	private Lucene50StoredFieldsFormat.Mode storedFieldsMode = null;
+	private Metrics metrics = null;
+	private final Map<String, Integer> fieldWeights = new LinkedHashMap<String, Integer>();
+
+	public IndexOptions() {
+
+		fieldWeights.put("Title", 2);
+		fieldWeights.put("Locations", 1);
+		fieldWeights.put("Authors", 1);
+		fieldWeights.put("Abstract", 1);
+	}
+
+	/**
+	 * @param threads: number of analysis threads sharing the index writer, 1 indexes on the calling thread
+	 */
+	public IndexOptions setThreads(int threads) {
+
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+		this.threads = threads;
+		return this;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param ramBufferSizeMB: memory the index writer buffers before flushing a segment
+	 */
+	public IndexOptions setRAMBufferSizeMB(double ramBufferSizeMB) {
+
+		this.ramBufferSizeMB = ramBufferSizeMB;
+		return this;
+	}
+
+	public double getRAMBufferSizeMB() {
+		return ramBufferSizeMB;
+	}
+
+	/**
+	 * @param queueCapacity: number of parsed documents waiting for a thread before the parser blocks
+	 */
+	public IndexOptions setQueueCapacity(int queueCapacity) {
+
+		if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1, got " + queueCapacity);
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @param commitInterval: commit after this many documents so a running SearchService can pick them up, 0 commits only at the end
+	 */
+	public IndexOptions setCommitInterval(int commitInterval) {
+
+		if (commitInterval < 0) throw new IllegalArgumentException("commitInterval must not be negative, got " + commitInterval);
+		this.commitInterval = commitInterval;
+		return this;
+	}
+
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * @param storeFields: store the text fields so they can be retrieved; the ID is always stored
+	 */
+	public IndexOptions setStoreFields(boolean storeFields) {
+
+		this.storeFields = storeFields;
+		return this;
+	}
+
+	public boolean isStoreFields() {
+		return storeFields;
+	}
+
+	/**
+	 * @param incremental: only add new or changed documents to an existing index and delete the ones no longer
+	 * in the corpus, instead of appending every document. Not available with shards, see setShards()
+	 */
+	public IndexOptions setIncremental(boolean incremental) {
+
+		if (incremental && shards > 1) throw new IllegalArgumentException("Incremental indexing cannot be combined with " + shards + " shards");
+		this.incremental = incremental;
+		return this;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * @param combinedField: also index every text field into a single "All" field, so a query can be
+	 * searched on one field instead of four
+	 */
+	public IndexOptions setCombinedField(boolean combinedField) {
+
+		this.combinedField = combinedField;
+		return this;
+	}
+
+	public boolean isCombinedField() {
+		return combinedField;
+	}
+
+	/**
+	 * The text of a field is added to the "All" field as many times as its weight, which scales its term
+	 * frequencies and length as BM25F does. 0 leaves the field out of the "All" field. The text is only
+	 * analyzed once, but its positions are indexed weight times, so the "All" postings grow with the weights.
+	 * @param field: one of Title, Locations, Authors and Abstract
+	 * @param weight: weight of the field in the "All" field
+	 */
+	public IndexOptions setFieldWeight(String field, int weight) {
+
+		if (!fieldWeights.containsKey(field)) throw new IllegalArgumentException("Unknown field " + field);
+		if (weight < 0) throw new IllegalArgumentException("weight must not be negative, got " + weight);
+		fieldWeights.put(field, weight);
+		return this;
+	}
+
+	public int getFieldWeight(String field) {
+		return fieldWeights.get(field);
+	}
+
+	/**
+	 * @return description of the "All" field, such as "Title:2,Locations:1,Authors:1,Abstract:1",
+	 * or an empty string if it is not indexed
+	 */
+	public String getCombinedFieldLayout() {
+
+		if (!combinedField) return "";
+		StringBuilder layout = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : fieldWeights.entrySet()) {
+
+			if (layout.length() > 0) layout.append(',');
+			layout.append(entry.getKey()).append(':').append(entry.getValue());
+		}
+		return layout.toString();
+	}
+
+	/**
+	 * Documents are assigned to a shard by a hash of their ID, so a document always lands in the same shard.
+	 * The shards are written in parallel, each by as many threads as getThreads(). Shards are always rebuilt
+	 * rather than updated incrementally: ties between shards are broken by each document's position in the
+	 * corpus, which would go stale for the documents an incremental update skips.
+	 * @param shards: number of shard indexes named shard-0, shard-1, ... in the index directory, 1 writes a single index
+	 */
+	public IndexOptions setShards(int shards) {
+
+		if (shards < 1) throw new IllegalArgumentException("shards must be at least 1, got " + shards);
+		if (shards > 1 && incremental) throw new IllegalArgumentException("Incremental indexing cannot be combined with " + shards + " shards");
+		this.shards = shards;
+		return this;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * @param directoryFactory: storage of the index, such as memory mode to build it without touching the disk
+	 */
+	public IndexOptions setDirectoryFactory(DirectoryFactory directoryFactory) {
+
+		this.directoryFactory = directoryFactory;
+		return this;
+	}
+
+	/**
+	 * @return the directory factory set, or the default one
+	 */
+	public DirectoryFactory getDirectoryFactory() {
+		return directoryFactory != null ? directoryFactory : DirectoryFactory.getDefault();
+	}
+
+	/**
+	 * @param sortById: sort the documents of every segment by ID as they are written, so the documents of
+	 * neighbouring ids share blocks of stored fields. Hits of equal score are then ordered by ID.
+	 */
+	public IndexOptions setSortById(boolean sortById) {
+
+		this.sortById = sortById;
+		return this;
+	}
+
+	public boolean isSortById() {
+		return sortById;
+	}
+
+	/**
+	 * @param storedFieldsMode: BEST_SPEED or BEST_COMPRESSION of the stored fields, null for the codec default
+	 */
+	public IndexOptions setStoredFieldsMode(Lucene50StoredFieldsFormat.Mode storedFieldsMode) {
+
+		this.storedFieldsMode = storedFieldsMode;
+		return this;
+	}
+
+	public Lucene50StoredFieldsFormat.Mode getStoredFieldsMode() {
+		return storedFieldsMode;
+	}
+
+	/**
+	 * @param metrics: registry receiving document latencies, analysis time and docs/sec, or null to not measure
+	 */
+	public IndexOptions setMetrics(Metrics metrics) {
+
+		this.metrics = metrics;
+		return this;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+}
@@ -1,86 +1,151 @@
 package tcd;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.KeywordAnalyzer;
-import org.apache.lucene.analysis.core.SimpleAnalyzer;
-import org.apache.lucene.analysis.core.StopAnalyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.codecs.lucene86.Lucene86Codec;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.search.similarities.BM25Similarity;
-import org.apache.lucene.search.similarities.ClassicSimilarity;
-import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 class Indexer {
 
-   public void createCranIndex(Path indexFile, List<Map<String, String>> cranList, String analyzerString, String similarity) {
+   // Marks the end of the parsed documents for the indexing threads
+   private static final CranDocument END_OF_DOCUMENTS = new CranDocument(null, null, null, null, null);
+
+   // Checksum of indexed documents that were written without one, never equal to a CRC32
+   private static final long NO_CHECKSUM = -1;
+
+   private static final Sort ID_SORT = new Sort(new SortField("ID", SortField.Type.STRING));
+
+   public void createCranIndex(Path indexFile, Iterator<CranDocument> cranDocuments, String analyzerString, String similarity) {
+
+       createCranIndex(indexFile, cranDocuments, analyzerString, similarity, new IndexOptions());
+   }
+
+   public void createCranIndex(Path indexFile, Iterator<CranDocument> cranDocuments, String analyzerString, String similarity, IndexOptions options) {
+
+       if (options.getShards() > 1) createCranShards(indexFile, cranDocuments, analyzerString, similarity, options);
+       else writeCranIndex(indexFile, cranDocuments, analyzerString, similarity, options, 1);
+   }
+
+   /**
+    * @param shards: number of shards the index belongs to, recorded so the searcher opens all of them
+    */
+   private void writeCranIndex(Path indexFile, Iterator<CranDocument> cranDocuments, String analyzerString, String similarity, IndexOptions options, int shards) {
 
        try {
 
-           // Create analyzer
-           Analyzer analyzer = null;
-
-           // the most commonly used analyzer:
-           // Note that the StandardAnalyzer can recognize URLs and emails.
-           //Also, it removes stop words and lowercases the generated tokens.
-           if (analyzerString.equals("Standard")) analyzer = new StandardAnalyzer(EnglishAnalyzer.getDefaultStopSet());
-
-           //The KeywordAnalyzer tokenizes input into a single token ,useful for fields like ids and zipcodes.
-           else if (analyzerString.equals("Keyword")) analyzer = new KeywordAnalyzer();
-           //The WhitespaceAnalyzer uses only a WhitespaceTokenizer which splits text by whitespace characters:
-           else if (analyzerString.equals("WhiteSpace")) analyzer = new WhitespaceAnalyzer();
-           //SimpleAnalyzer consists of LetterTokenizer and a LowerCaseFilter:
-           // SimpleAnalyzer didn't remove stop words. It also doesn't recognize URLs.
-           else if (analyzerString.equals("Simple")) analyzer = new SimpleAnalyzer();
-           //In this example, the LetterTokenizer splits text by non-letter characters, while the StopFilter removes stop words from the token list.
-               //However, unlike the StandardAnalyzer, StopAnalyzer isn't able to recognize URLs.
-           else if (analyzerString.equals("Stop")) analyzer = new StopAnalyzer();
-           //EnglishAnalyzer which consists of StandardTokenizer, StandardFilter, EnglishPossessiveFilter, LowerCaseFilter, StopFilter, and PorterStemFilter.
-           else {
-
-               analyzer = new EnglishAnalyzer();
-               analyzerString = "English";
-           }
+           // Look up the shared analyzer, unknown names fall back to English
+           AnalysisRegistry registry = AnalysisRegistry.getDefault();
+           analyzerString = registry.analyzerName(analyzerString);
+           similarity = registry.similarityName(similarity);
+           Analyzer analyzer = registry.getAnalyzer(analyzerString);
+
+           // Store index on disk, or wherever the directory factory keeps it
+           Directory directory = options.getDirectoryFactory().open(indexFile);
 
-           // Store index on disk
-           Directory directory = FSDirectory.open(indexFile);
+           // Collect the checksums already indexed, unless the index must be rebuilt from scratch
+           IndexDelta delta = null;
+           if (options.isIncremental()) delta = readIndexDelta(directory, analyzerString, options);
 
            // Create index writer
-           IndexWriterConfig config = new IndexWriterConfig(analyzer);
-           config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-           if (similarity.equals("TFIDF")) config.setSimilarity(new ClassicSimilarity());
-           else if (similarity.equals("LMDirichlet")) config.setSimilarity(new LMDirichletSimilarity());
-           else {
-
-               config.setSimilarity(new BM25Similarity());
-               similarity = "BM25";
-           }
+           IndexWriterConfig config = new IndexWriterConfig(options.getMetrics() != null ? new TimedAnalyzer(analyzer) : analyzer);
+           config.setOpenMode(options.isIncremental() && delta == null ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+           config.setRAMBufferSizeMB(options.getRAMBufferSizeMB());
+           config.setSimilarity(registry.getSimilarity(similarity));
+           if (options.isSortById()) config.setIndexSort(ID_SORT);
+           if (options.getStoredFieldsMode() != null) config.setCodec(new Lucene86Codec(options.getStoredFieldsMode()));
 
            System.out.println("Creating index using " + analyzerString + " analyzer and " + similarity + " similarity.");
 
            IndexWriter iwriter = new IndexWriter(directory, config);
+           Map<String, String> commitData = new HashMap<String, String>();
+           // Lets the searcher pick the same analyzer and similarity
+           commitData.put("analyzer", analyzerString);
+           commitData.put("similarity", similarity);
+           commitData.put("combined", options.getCombinedFieldLayout());
+           if (shards > 1) commitData.put("shards", Integer.toString(shards));
+           iwriter.setLiveCommitData(commitData.entrySet());
 
            // Add documents to index
-           for (int i = 0; i < cranList.size(); i++)
-               addCranDocument(iwriter, cranList.get(i));
+           long start = System.nanoTime();
+           long docCount = 0;
+           if (options.getThreads() == 1) {
+
+               while (cranDocuments.hasNext()) {
+
+                   addCranDocument(iwriter, cranDocuments.next(), options, delta);
+                   docCount++;
+                   maybeCommit(iwriter, docCount, options);
+               }
+           }
+           else docCount = addCranDocumentsInParallel(iwriter, cranDocuments, options, delta);
+
+           // Documents left over were removed from the corpus
+           long indexedCount = docCount;
+           if (delta != null) {
+
+               int deleted = delta.existingChecksums.size();
+               for (String id : delta.existingChecksums.keySet()) iwriter.deleteDocuments(new Term("ID", id));
+               System.out.println("Incremental update: " + delta.added + " added, " + delta.updated + " updated, "
+                       + delta.unchanged + " unchanged, " + deleted + " deleted.");
+               // Unchanged documents are skipped, so only the added and updated ones count towards the rate
+               indexedCount = delta.added.get() + delta.updated.get();
+               if (options.getMetrics() != null) {
+
+                   options.getMetrics().counter("index.added").addAndGet(delta.added.get());
+                   options.getMetrics().counter("index.updated").addAndGet(delta.updated.get());
+                   options.getMetrics().counter("index.unchanged").addAndGet(delta.unchanged.get());
+                   options.getMetrics().counter("index.deleted").addAndGet(deleted);
+               }
+           }
 
            iwriter.close();
            directory.close();
+
+           double seconds = (System.nanoTime() - start) / 1e9;
+           System.out.println("Indexed " + indexedCount + " documents" + (indexedCount != docCount ? " of " + docCount + " parsed" : "") + " in "
+                   + String.format("%.3f", seconds) + " s (" + String.format("%.1f", indexedCount / seconds) + " docs/sec) using " + options.getThreads() + " thread(s).");
+           if (options.getMetrics() != null) {
+
+               options.getMetrics().counter("index.docs").addAndGet(indexedCount);
+               options.getMetrics().setGauge("index.docsPerSec", indexedCount / seconds);
+           }
        }
        catch (IOException e) {
 
@@ -89,15 +154,484 @@ class Indexer {
        }
    }
 
-   private void addCranDocument(IndexWriter iwriter, Map<String, String> cranDict) throws IOException {
+   /**
+    * Hash-partition the documents by ID across options.getShards() indexes named shard-0, shard-1, ...
+    * The calling thread parses and routes the documents, and each shard is written on its own thread.
+    * Every document records its position in the corpus, so the searcher can order hits of equal score
+    * across shards as a single index orders them by doc id.
+    * @param indexDir: directory receiving the shards
+    */
+   private void createCranShards(final Path indexDir, Iterator<CranDocument> cranDocuments, final String analyzerString, final String similarity, final IndexOptions options) {
+
+       final int shards = options.getShards();
+       final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+       List<BlockingQueue<CranDocument>> queues = new ArrayList<BlockingQueue<CranDocument>>();
+       Thread[] writers = new Thread[shards];
+       for (int i = 0; i < shards; i++) {
+
+           final BlockingQueue<CranDocument> queue = new ArrayBlockingQueue<CranDocument>(options.getQueueCapacity());
+           final Path shardDir = indexDir.resolve("shard-" + i);
+           queues.add(queue);
+           writers[i] = new Thread("indexer-shard-" + i) {
+
+               @Override
+               public void run() {
+
+                   try {
+                       writeCranIndex(shardDir, new QueueIterator(queue), analyzerString, similarity, options, shards);
+                   }
+                   catch (Throwable t) {
+                       failure.compareAndSet(null, t);
+                   }
+               }
+           };
+           writers[i].start();
+       }
+
+       long start = System.nanoTime();
+       long docCount = 0;
+       try {
+           while (cranDocuments.hasNext() && failure.get() == null) {
+
+               CranDocument cranDocument = cranDocuments.next();
+               offerUnlessFailed(queues.get(shardOf(cranDocument.getId(), shards)), new ShardDocument(cranDocument, docCount), failure);
+               docCount++;
+           }
+           for (int i = 0; i < queues.size(); i++) offerUnlessFailed(queues.get(i), END_OF_DOCUMENTS, failure);
+           for (int i = 0; i < writers.length; i++) writers[i].join();
+       }
+       catch (InterruptedException e) {
+
+           Thread.currentThread().interrupt();
+           for (int i = 0; i < writers.length; i++) writers[i].interrupt();
+       }
+
+       if (failure.get() != null) {
+
+           failure.get().printStackTrace();
+           System.exit(1);
+       }
+       double seconds = (System.nanoTime() - start) / 1e9;
+       System.out.println("Indexed " + docCount + " documents into " + shards + " shards in " + String.format("%.3f", seconds) + " s ("
+               + String.format("%.1f", docCount / seconds) + " docs/sec).");
+       if (options.getMetrics() != null) options.getMetrics().setGauge("index.docsPerSec", docCount / seconds);
+   }
+
+   /**
+    * @return shard of a document, the same for every run and JVM since String.hashCode() is specified
+    */
+   static int shardOf(String id, int shards) {
+
+       return (id.hashCode() & Integer.MAX_VALUE) % shards;
+   }
+
+   /**
+    * Build one index per analyzer from a single pass over the documents. Each parsed document is handed
+    * to every index, and each index is analyzed and written on its own thread. The similarity is not
+    * chosen here: it only matters at search time, since every similarity stores the same length norms,
+    * so each of these indexes serves TFIDF, BM25 and LMDirichlet alike.
+    * @param indexDir: directory receiving one index per analyzer, named after the analyzer
+    * @param cranDocuments: documents to index
+    * @param analyzerStrings: lucene analyzers to build indexes for
+    * @param options: options applied to every index
+    */
+   public void createCranIndexes(final Path indexDir, Iterator<CranDocument> cranDocuments, String[] analyzerStrings, final IndexOptions options) {
+
+       final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+       List<BlockingQueue<CranDocument>> queues = new ArrayList<BlockingQueue<CranDocument>>();
+       Thread[] writers = new Thread[analyzerStrings.length];
+       for (int i = 0; i < analyzerStrings.length; i++) {
+
+           final String analyzerString = analyzerStrings[i];
+           final BlockingQueue<CranDocument> queue = new ArrayBlockingQueue<CranDocument>(options.getQueueCapacity());
+           queues.add(queue);
+           writers[i] = new Thread("indexer-" + analyzerString) {
+
+               @Override
+               public void run() {
+
+                   try {
+                       createCranIndex(indexDir.resolve(analyzerString), new QueueIterator(queue), analyzerString, "BM25", options);
+                   }
+                   catch (Throwable t) {
+                       failure.compareAndSet(null, t);
+                   }
+               }
+           };
+           writers[i].start();
+       }
+
+       long start = System.nanoTime();
+       long docCount = 0;
+       try {
+           while (cranDocuments.hasNext() && failure.get() == null) {
+
+               CranDocument cranDocument = cranDocuments.next();
+               for (int i = 0; i < queues.size(); i++) offerUnlessFailed(queues.get(i), cranDocument, failure);
+               docCount++;
+           }
+           for (int i = 0; i < queues.size(); i++) offerUnlessFailed(queues.get(i), END_OF_DOCUMENTS, failure);
+           for (int i = 0; i < writers.length; i++) writers[i].join();
+       }
+       catch (InterruptedException e) {
+
+           Thread.currentThread().interrupt();
+           for (int i = 0; i < writers.length; i++) writers[i].interrupt();
+       }
+
+       if (failure.get() != null) {
+
+           failure.get().printStackTrace();
+           System.exit(1);
+       }
+       double seconds = (System.nanoTime() - start) / 1e9;
+       System.out.println("Built " + analyzerStrings.length + " indexes of " + docCount + " documents in " + String.format("%.3f", seconds) + " s from a single pass over the corpus.");
+   }
+
+   /**
+    * Wait for room in a queue, giving up once any writer has failed so the parser never blocks forever
+    */
+   private void offerUnlessFailed(BlockingQueue<CranDocument> queue, CranDocument cranDocument, AtomicReference<Throwable> failure) throws InterruptedException {
+
+       while (!queue.offer(cranDocument, 100, TimeUnit.MILLISECONDS))
+           if (failure.get() != null) return;
+   }
+
+   /**
+    * Add documents through a bounded queue drained by several threads sharing the index writer.
+    * The calling thread parses and blocks whenever the queue is full.
+    * @return number of documents added
+    */
+   private long addCranDocumentsInParallel(final IndexWriter iwriter, Iterator<CranDocument> cranDocuments, final IndexOptions options, final IndexDelta delta) throws IOException {
+
+       final BlockingQueue<CranDocument> queue = new ArrayBlockingQueue<CranDocument>(options.getQueueCapacity());
+       final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+       Thread[] workers = new Thread[options.getThreads()];
+       for (int i = 0; i < workers.length; i++) {
+
+           workers[i] = new Thread("indexer-" + i) {
+
+               @Override
+               public void run() {
+
+                   try {
+                       CranDocument cranDocument;
+                       while ((cranDocument = queue.take()) != END_OF_DOCUMENTS) {
+
+                           // Keep draining after a failure so the parser never blocks forever
+                           if (failure.get() != null) continue;
+                           try {
+                               addCranDocument(iwriter, cranDocument, options, delta);
+                           }
+                           catch (Throwable t) {
+                               failure.compareAndSet(null, t);
+                           }
+                       }
+                   }
+                   catch (InterruptedException e) {
+                       failure.compareAndSet(null, e);
+                   }
+               }
+           };
+           workers[i].start();
+       }
+
+       long docCount = 0;
+       try {
+           while (cranDocuments.hasNext() && failure.get() == null) {
+
+               queue.put(cranDocuments.next());
+               docCount++;
+               maybeCommit(iwriter, docCount, options);
+           }
+           for (int i = 0; i < workers.length; i++) queue.put(END_OF_DOCUMENTS);
+           for (int i = 0; i < workers.length; i++) workers[i].join();
+       }
+       catch (InterruptedException e) {
+
+           Thread.currentThread().interrupt();
+           for (int i = 0; i < workers.length; i++) workers[i].interrupt();
+           throw new IOException("Interrupted while indexing", e);
+       }
+
+       if (failure.get() != null) throw new IOException("Indexing thread failed", failure.get());
+       return docCount;
+   }
+
+   /**
+    * Commit every options.getCommitInterval() documents, so searchers refreshing on the index see them
+    */
+   private void maybeCommit(IndexWriter iwriter, long docCount, IndexOptions options) throws IOException {
+
+       if (options.getCommitInterval() > 0 && docCount % options.getCommitInterval() == 0) iwriter.commit();
+   }
+
+   /**
+    * Iterates over the documents of a queue filled by another thread, until the end marker.
+    */
+   private static class QueueIterator implements Iterator<CranDocument> {
+
+       private final BlockingQueue<CranDocument> queue;
+       private CranDocument nextDocument = null;
+
+       QueueIterator(BlockingQueue<CranDocument> queue) {
+
+           this.queue = queue;
+       }
+
+       @Override
+       public boolean hasNext() {
+
+           if (nextDocument == null) {
+
+               try {
+                   nextDocument = queue.take();
+               }
+               catch (InterruptedException e) {
 
+                   Thread.currentThread().interrupt();
+                   nextDocument = END_OF_DOCUMENTS;
+               }
+           }
+           return nextDocument != END_OF_DOCUMENTS;
+       }
+
+       @Override
+       public CranDocument next() {
+
+           if (!hasNext()) throw new NoSuchElementException();
+           CranDocument cranDocument = nextDocument;
+           nextDocument = null;
+           return cranDocument;
+       }
+
+       @Override
+       public void remove() {
+           throw new UnsupportedOperationException();
+       }
+   }
+
+   /**
+    * Read the ID and checksum of every live document of an existing index
+    * @return the indexed checksums, or null if the index must be rebuilt because it does not exist,
+    *         was built with another analyzer, combined field or sort, or lacks the ID and checksum doc values
+    */
+   private IndexDelta readIndexDelta(Directory directory, String analyzerString, IndexOptions options) throws IOException {
+
+       if (!DirectoryReader.indexExists(directory)) return null;
+
+       DirectoryReader ireader = DirectoryReader.open(directory);
+       try {
+           if (!analyzerString.equals(ireader.getIndexCommit().getUserData().get("analyzer"))) {
+
+               System.out.println("Index was built with another analyzer, rebuilding it.");
+               return null;
+           }
+           String combined = ireader.getIndexCommit().getUserData().get("combined");
+           if (!options.getCombinedFieldLayout().equals(combined == null ? "" : combined)) {
+
+               System.out.println("Index was built with other combined field weights, rebuilding it.");
+               return null;
+           }
+
+           IndexDelta delta = new IndexDelta();
+           for (LeafReaderContext leaf : ireader.leaves()) {
+
+               LeafReader reader = leaf.reader();
+               if (options.isSortById() && !ID_SORT.equals(reader.getMetaData().getSort())) {
+
+                   // The index writer cannot add a sort to segments written without it
+                   System.out.println("Index is not sorted by ID, rebuilding it.");
+                   return null;
+               }
+               SortedDocValues idValues = reader.getSortedDocValues("ID");
+               NumericDocValues checksumValues = reader.getNumericDocValues("Checksum");
+               if (idValues == null && reader.numDocs() > 0) {
+
+                   System.out.println("Index has no ID doc values, rebuilding it.");
+                   return null;
+               }
+
+               Bits liveDocs = reader.getLiveDocs();
+               for (int doc = 0; doc < reader.maxDoc(); doc++) {
+
+                   if ((liveDocs != null && !liveDocs.get(doc)) || !idValues.advanceExact(doc)) continue;
+                   long checksum = checksumValues != null && checksumValues.advanceExact(doc) ? checksumValues.longValue() : NO_CHECKSUM;
+                   delta.existingChecksums.put(idValues.lookupOrd(idValues.ordValue()).utf8ToString(), checksum);
+               }
+           }
+           return delta;
+       }
+       finally {
+           ireader.close();
+       }
+   }
+
+   /**
+    * Checksum of every field of a document, used to detect changed documents
+    */
+   private long checksum(CranDocument cranDocument) {
+
+       CRC32 crc = new CRC32();
+       Charset utf8 = Charset.forName("UTF-8");
+       crc.update(cranDocument.getTitle().getBytes(utf8));
+       crc.update(0);
+       crc.update(cranDocument.getAuthors().getBytes(utf8));
+       crc.update(0);
+       crc.update(cranDocument.getLocations().getBytes(utf8));
+       crc.update(0);
+       crc.update(cranDocument.getAbstract().getBytes(utf8));
+       return crc.getValue();
+   }
+
+   private void addCranDocument(IndexWriter iwriter, CranDocument cranDocument, IndexOptions options, IndexDelta delta) throws IOException {
+
+       long checksum = checksum(cranDocument);
+       Long previousChecksum = null;
+       if (delta != null) {
+
+           previousChecksum = delta.existingChecksums.remove(cranDocument.getId());
+           if (previousChecksum != null && previousChecksum == checksum) {
+
+               delta.unchanged.incrementAndGet();
+               return;
+           }
+       }
+
+       Field.Store store = options.isStoreFields() ? Field.Store.YES : Field.Store.NO;
        Document document = new Document();
-       document.add(new StringField("ID", cranDict.get("ID"), Field.Store.YES));
-       document.add(new TextField("Title", cranDict.get("Title"), Field.Store.YES));
-       document.add(new TextField("Locations", cranDict.get("Locations"), Field.Store.YES));
-       document.add(new TextField("Authors", cranDict.get("Authors"), Field.Store.YES));
-       document.add(new TextField("Abstract", cranDict.get("Abstract"), Field.Store.YES));
-       iwriter.addDocument(document);
+       document.add(new StringField("ID", cranDocument.getId(), Field.Store.YES));
+       // Lets the searcher read hit ids without loading stored documents
+       document.add(new SortedDocValuesField("ID", new BytesRef(cranDocument.getId())));
+       document.add(new NumericDocValuesField("Checksum", checksum));
+       if (cranDocument instanceof ShardDocument) document.add(new NumericDocValuesField("Position", ((ShardDocument) cranDocument).position));
+       document.add(new TextField("Title", cranDocument.getTitle(), store));
+       document.add(new TextField("Locations", cranDocument.getLocations(), store));
+       document.add(new TextField("Authors", cranDocument.getAuthors(), store));
+       document.add(new TextField("Abstract", cranDocument.getAbstract(), store));
+
+       Metrics metrics = options.getMetrics();
+       long start = 0;
+       if (metrics != null) {
+
+           TimedAnalyzer.takeNanos();
+           start = System.nanoTime();
+       }
+
+       if (options.isCombinedField()) {
+
+           // Repeating a field scales its term frequencies and length by its weight, like BM25F
+           Analyzer analyzer = iwriter.getAnalyzer();
+           addCombinedField(document, analyzer, cranDocument.getTitle(), options.getFieldWeight("Title"));
+           addCombinedField(document, analyzer, cranDocument.getLocations(), options.getFieldWeight("Locations"));
+           addCombinedField(document, analyzer, cranDocument.getAuthors(), options.getFieldWeight("Authors"));
+           addCombinedField(document, analyzer, cranDocument.getAbstract(), options.getFieldWeight("Abstract"));
+       }
+
+       if (previousChecksum == null) {
+
+           iwriter.addDocument(document);
+           if (delta != null) delta.added.incrementAndGet();
+       }
+       else {
+
+           iwriter.updateDocument(new Term("ID", cranDocument.getId()), document);
+           delta.updated.incrementAndGet();
+       }
+
+       if (metrics != null) {
+
+           metrics.record("index.document", System.nanoTime() - start);
+           metrics.record("index.analyze", TimedAnalyzer.takeNanos());
+       }
+   }
+
+   /**
+    * Add the text of a field to the "All" field as many times as its weight. The text is analyzed once
+    * and its tokens replayed for every repetition, which indexes the same terms and positions as adding
+    * the text weight times.
+    */
+   private void addCombinedField(Document document, Analyzer analyzer, String text, int weight) throws IOException {
+
+       if (weight == 0) return;
+       List<AttributeSource.State> tokens = new ArrayList<AttributeSource.State>();
+       TokenStream tokenStream = analyzer.tokenStream("All", text);
+       AttributeSource.State end;
+       try {
+           tokenStream.reset();
+           while (tokenStream.incrementToken()) tokens.add(tokenStream.captureState());
+           tokenStream.end();
+           end = tokenStream.captureState();
+       }
+       finally {
+           tokenStream.close();
+       }
+
+       for (int i = 0; i < weight; i++) document.add(new TextField("All", new ReplayedTokens(tokenStream, tokens, end)));
+   }
+
+   /**
+    * Tokens captured from an analyzed text, replayed into attributes of their own so the analyzer can be
+    * reused for the other fields of the document.
+    */
+   private static class ReplayedTokens extends TokenStream {
+
+       private final List<AttributeSource.State> tokens;
+       private final AttributeSource.State end;
+       private int next = 0;
+
+       ReplayedTokens(TokenStream analyzed, List<AttributeSource.State> tokens, AttributeSource.State end) {
+
+           super(analyzed.cloneAttributes());
+           this.tokens = tokens;
+           this.end = end;
+       }
+
+       @Override
+       public boolean incrementToken() {
+
+           if (next == tokens.size()) return false;
+           restoreState(tokens.get(next++));
+           return true;
+       }
+
+       @Override
+       public void end() {
+
+           restoreState(end);
+       }
+
+       @Override
+       public void reset() {
+
+           next = 0;
+       }
+   }
+
+   /**
+    * A document routed to a shard, with its position in the corpus.
+    */
+   private static class ShardDocument extends CranDocument {
+
+       final long position;
+
+       ShardDocument(CranDocument cranDocument, long position) {
+
+           super(cranDocument.getId(), cranDocument.getTitle(), cranDocument.getAuthors(), cranDocument.getLocations(), cranDocument.getAbstract());
+           this.position = position;
+       }
+   }
+
+   /**
+    * Documents of an existing index that have not been seen yet, and counts of the changes made to it.
+    */
+   private static class IndexDelta {
+
+       final ConcurrentHashMap<String, Long> existingChecksums = new ConcurrentHashMap<String, Long>();
+       final AtomicLong added = new AtomicLong();
+       final AtomicLong updated = new AtomicLong();
+       final AtomicLong unchanged = new AtomicLong();
    }
 
    public static void main(String[] args) {
@@ -106,20 +640,26 @@ class Indexer {
        String similarity = "BM25";
        String hpp = "1000";
        String dataDir="data/cran";
+       // Only new or changed documents are indexed again
+       Metrics metrics = new Metrics();
+       IndexOptions options = new IndexOptions().setThreads(Runtime.getRuntime().availableProcessors()).setIncremental(true).setMetrics(metrics);
 
-       System.out.println("Parsing CRAN data...");
        FileIO fileIO = new FileIO();
-       List<Map<String, String>> cranList = fileIO.parseCran(dataDir);
-       System.out.println("Parsing done!\n");
-
-       System.out.println("Deleting previous index files, if they exist...");
-       fileIO.deleteDir(new File("index"));
-       System.out.println("Done!\n");
-
-       System.out.println("Indexing data...");
+       System.out.println("Parsing and indexing CRAN data...");
+       ParallelCranParser cranParser = fileIO.streamCranParallel(dataDir, Runtime.getRuntime().availableProcessors());
        Indexer indexer = new Indexer();
-       indexer.createCranIndex(Paths.get("index/cran.index"), cranList, analyzer, similarity);
+       indexer.createCranIndex(Paths.get("index/cran.index"), cranParser, analyzer, similarity, options);
+       try {
+           cranParser.close();
+           metrics.writeJson(Paths.get("output/index-metrics.json"));
+       }
+       catch (IOException e) {
+
+           e.printStackTrace();
+           System.exit(1);
+       }
        System.out.println("Indexing done, and saved on "+Paths.get("index/cran.index")+" !");
+       System.out.println("Metrics written to output/index-metrics.json");
    }
 
 
@@ -0,0 +1,104 @@
+package tcd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram. Values are counted in log-linear buckets:
+ * exact below 64 ns, then 32 buckets per power of two, so any recorded value is reported within about 3%.
+ * Recording is a couple of atomic increments, cheap enough for every query and document.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = LINEAR_BUCKETS + (63 - 6) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos: duration to record, negative durations count as 0
+	 */
+	public void record(long nanos) {
+
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+	}
+
+	private static int bucketOf(long nanos) {
+
+		if (nanos < LINEAR_BUCKETS) return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the highest value counted in a bucket
+	 */
+	private static long highestValueOf(int bucket) {
+
+		if (bucket < LINEAR_BUCKETS) return bucket;
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+		long top = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * @param percentile: percentile between 0 and 100
+	 * @return the value in nanoseconds that percentile of the recorded values are at or below, 0 when empty
+	 */
+	public long percentile(double percentile) {
+
+		long total = count.get();
+		if (total == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+
+			seen += counts.get(i);
+			if (seen >= target) return Math.min(highestValueOf(i), maxNanos.get());
+		}
+		return maxNanos.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos() {
+
+		long total = count.get();
+		return total == 0 ? 0 : (double) totalNanos.get() / total;
+	}
+
+	/**
+	 * Forget every recorded value
+	 */
+	public void reset() {
+
+		for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+}
@@ -0,0 +1,360 @@
+package tcd;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays queries against an in-process Searcher to measure throughput and latency under load.
+ * The queries come from FileIO.parseCranQueries or from a query log with one query per line, and
+ * are replayed in order, wrapping around. Two kinds of load are generated:
+ *
+ *    closed   a fixed number of clients each send their next query as soon as the last one returns
+ *    open     queries arrive at a fixed rate whether or not earlier ones returned, as real users do
+ *
+ * In open loop the latency of a query is counted from the time it was due to be sent, not from when a
+ * worker got to it, so queries stuck behind a slow one are not left out of the tail (coordinated
+ * omission). The service time, without the wait, is reported next to it.
+ *
+ * Each level of load runs for a warmup period and then a measured period. Running several levels gives
+ * the throughput versus latency curve, for example
+ *
+ *    java tcd.LoadGenerator mode=open levels=50,100,200,400 duration=10
+ *
+ */
+public class LoadGenerator {
+
+	public static final String CLOSED = "closed";
+	public static final String OPEN = "open";
+
+	private int threads = Runtime.getRuntime().availableProcessors() * 4;
+	private int hitsPerPage = 10;
+	private String[] fields = null;
+	private String similarity = null;
+	private long warmupMillis = 2000;
+	private long durationMillis = 10000;
+
+	/**
+	 * @param threads: number of workers serving the queries in open loop
+	 */
+	public void setThreads(int threads) {
+
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param hitsPerPage: number of hits returned for each query
+	 */
+	public void setHitsPerPage(int hitsPerPage) {
+
+		if (hitsPerPage < 1) throw new IllegalArgumentException("hitsPerPage must be at least 1, got " + hitsPerPage);
+		this.hitsPerPage = hitsPerPage;
+	}
+
+	/**
+	 * @param fields: fields the queries are searched in, or null for the fields of the Searcher
+	 */
+	public void setFields(String[] fields) {
+
+		this.fields = fields;
+	}
+
+	/**
+	 * @param similarity: lucene similarity to use, or null for the one the index was built with
+	 */
+	public void setSimilarity(String similarity) {
+
+		this.similarity = similarity;
+	}
+
+	/**
+	 * @param warmupMillis: time each level runs before it is measured
+	 * @param durationMillis: time each level is measured
+	 */
+	public void setDuration(long warmupMillis, long durationMillis) {
+
+		if (warmupMillis < 0 || durationMillis <= 0) throw new IllegalArgumentException("Invalid warmup " + warmupMillis + " ms or duration " + durationMillis + " ms");
+		this.warmupMillis = warmupMillis;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Replay the queries with a fixed number of clients
+	 * @param searchService: open index to search
+	 * @param searcher: searcher running the queries
+	 * @param queryStrings: queries to replay
+	 * @param clients: number of queries in flight at any time
+	 * @return throughput and latency of the measured period
+	 * @throws InterruptedException
+	 */
+	public LoadResult runClosedLoop(final SearchService searchService, final Searcher searcher, final List<String> queryStrings, int clients) throws InterruptedException {
+
+		if (queryStrings.isEmpty()) throw new IllegalArgumentException("No queries to replay");
+		if (clients < 1) throw new IllegalArgumentException("clients must be at least 1, got " + clients);
+		final LoadResult result = new LoadResult(CLOSED, clients);
+		final AtomicLong next = new AtomicLong();
+		final long measureStart = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		final long end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+		Thread[] workers = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+
+			workers[i] = new Thread("load-client-" + i) {
+
+				@Override
+				public void run() {
+
+					long start;
+					while ((start = System.nanoTime()) < end) {
+
+						String queryString = queryStrings.get((int) (next.getAndIncrement() % queryStrings.size()));
+						search(searchService, searcher, queryString, result, start, start, start >= measureStart);
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers) worker.join();
+		result.finish(measureStart);
+		return result;
+	}
+
+	/**
+	 * Replay the queries at a fixed arrival rate, served by the worker threads
+	 * @param searchService: open index to search
+	 * @param searcher: searcher running the queries
+	 * @param queryStrings: queries to replay
+	 * @param queriesPerSecond: arrival rate of the queries
+	 * @return throughput and latency of the queries due in the measured period
+	 * @throws InterruptedException
+	 */
+	public LoadResult runOpenLoop(final SearchService searchService, final Searcher searcher, List<String> queryStrings, double queriesPerSecond) throws InterruptedException {
+
+		if (queryStrings.isEmpty()) throw new IllegalArgumentException("No queries to replay");
+		if (queriesPerSecond <= 0) throw new IllegalArgumentException("queriesPerSecond must be positive, got " + queriesPerSecond);
+		final LoadResult result = new LoadResult(OPEN, queriesPerSecond);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		final long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		long end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		try {
+
+			for (long i = 0; ; i++) {
+
+				// Arrival times follow the schedule, not the completion of earlier queries
+				final long due = start + (long) (i * 1e9 / queriesPerSecond);
+				if (due >= end) break;
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+
+				final String queryString = queryStrings.get((int) (i % queryStrings.size()));
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						search(searchService, searcher, queryString, result, due, System.nanoTime(), due >= measureStart);
+					}
+				});
+			}
+		}
+		finally {
+
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.DAYS);
+		}
+		result.finish(measureStart);
+		return result;
+	}
+
+	/**
+	 * Run one query and record it
+	 * @param due: time the query was due to be sent, latency is counted from it
+	 * @param start: time the query was sent, service time is counted from it
+	 */
+	private void search(SearchService searchService, Searcher searcher, String queryString, LoadResult result, long due, long start, boolean measured) {
+
+		try {
+
+			searcher.search(searchService, queryString, hitsPerPage, fields, similarity);
+			long done = System.nanoTime();
+			if (measured) {
+
+				result.latency.record(done - due);
+				result.serviceTime.record(done - start);
+				long last = result.lastDone.get();
+				while (done > last && !result.lastDone.compareAndSet(last, done)) last = result.lastDone.get();
+			}
+		}
+		catch (IOException e) {
+			result.error(measured, e);
+		}
+		catch (ParseException e) {
+			result.error(measured, e);
+		}
+		catch (RuntimeException e) {
+			result.error(measured, e);
+		}
+	}
+
+	/**
+	 * Print the throughput versus latency curve, one row per level of load
+	 * @param results: results of the levels, in the order they ran
+	 */
+	public void printCurve(List<LoadResult> results) {
+
+		System.out.println(String.format("%-7s %-8s %-10s %-8s %-10s %-10s %-10s %-10s %-10s %-12s", "mode", "level", "qps", "errors",
+				"p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)", "p99 svc (ms)"));
+		for (LoadResult result : results) {
+
+			System.out.println(String.format("%-7s %-8s %-10.1f %-8d %-10.3f %-10.3f %-10.3f %-10.3f %-10.3f %-12.3f", result.mode, result.getLevel(),
+					result.getThroughput(), result.errors.get(), result.latency.percentile(50) / 1e6, result.latency.percentile(90) / 1e6, result.latency.percentile(99) / 1e6,
+					result.latency.percentile(99.9) / 1e6, result.latency.getMaxNanos() / 1e6, result.serviceTime.percentile(99) / 1e6));
+		}
+		for (LoadResult result : results)
+			if (result.firstError.get() != null) System.out.println("First error at " + result.mode + " " + result.getLevel() + ": " + result.firstError.get());
+	}
+
+	/**
+	 * @param logFile: UTF-8 query log with one query per line, blank lines are skipped
+	 * @return the queries of the log
+	 * @throws IOException
+	 */
+	public static List<String> readQueryLog(Path logFile) throws IOException {
+
+		List<String> queryStrings = new ArrayList<String>();
+		for (String line : Files.readAllLines(logFile, Charset.forName("UTF-8"))) if (!line.trim().isEmpty()) queryStrings.add(line);
+		return queryStrings;
+	}
+
+	/**
+	 * Throughput and latency of one level of load.
+	 */
+	public static class LoadResult {
+
+		public final String mode;
+		public final double level;
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public final LatencyHistogram serviceTime = new LatencyHistogram();
+		public final AtomicLong errors = new AtomicLong();
+		final AtomicReference<String> firstError = new AtomicReference<String>();
+		final AtomicLong lastDone = new AtomicLong();
+		private double seconds = 0;
+
+		LoadResult(String mode, double level) {
+
+			this.mode = mode;
+			this.level = level;
+		}
+
+		void error(boolean measured, Exception e) {
+
+			if (measured) errors.incrementAndGet();
+			String message = e.toString();
+			int newline = message.indexOf('\n');
+			firstError.compareAndSet(null, newline < 0 ? message : message.substring(0, newline));
+		}
+
+		/**
+		 * Close the measured period. Queries still running at its end are waited for, so the period
+		 * lasts until the last of them returned.
+		 */
+		void finish(long measureStart) {
+
+			seconds = Math.max(0, lastDone.get() - measureStart) / 1e9;
+		}
+
+		/**
+		 * @return clients or queries per second, without a fraction when there is none
+		 */
+		public String getLevel() {
+			return level == Math.rint(level) ? String.valueOf((long) level) : String.valueOf(level);
+		}
+
+		/**
+		 * @return measured queries returned per second
+		 */
+		public double getThroughput() {
+			return seconds > 0 ? latency.getCount() / seconds : 0;
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args: optional settings such as "mode=open", "levels=50,100,200" (clients in closed loop, queries
+	 * per second in open loop), "duration=10" and "warmup=2" in seconds, "k=10", "threads=8" and "log=queries.txt"
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+
+		String mode = CLOSED;
+		String levels = null;
+		double warmup = 2;
+		double duration = 10;
+		String log = null;
+		LoadGenerator loadGenerator = new LoadGenerator();
+		for (String arg : args) {
+
+			if (arg.startsWith("mode=")) mode = arg.substring(5);
+			else if (arg.startsWith("levels=")) levels = arg.substring(7);
+			else if (arg.startsWith("duration=")) duration = Double.parseDouble(arg.substring(9));
+			else if (arg.startsWith("warmup=")) warmup = Double.parseDouble(arg.substring(7));
+			else if (arg.startsWith("k=")) loadGenerator.setHitsPerPage(Integer.parseInt(arg.substring(2)));
+			else if (arg.startsWith("threads=")) loadGenerator.setThreads(Integer.parseInt(arg.substring(8)));
+			else if (arg.startsWith("log=")) log = arg.substring(4);
+			else throw new IllegalArgumentException("Unknown setting " + arg + ", expected mode=, levels=, duration=, warmup=, k=, threads= or log=");
+		}
+		if (!mode.equals(CLOSED) && !mode.equals(OPEN)) throw new IllegalArgumentException("Unknown mode " + mode + ", expected closed or open");
+		if (levels == null) levels = mode.equals(CLOSED) ? "1,2,4,8" : "50,100,200,400";
+		loadGenerator.setDuration((long) (warmup * 1000), (long) (duration * 1000));
+
+		// The result cache stays off so every query reaches the index
+		Searcher searcher = new Searcher();
+		List<LoadResult> results = new ArrayList<LoadResult>();
+		try {
+
+			List<String> queryStrings;
+			if (log != null) queryStrings = readQueryLog(Paths.get(log));
+			else {
+
+				FileIO fileIO = new FileIO();
+				fileIO.setSnapshotDir(Paths.get("cache"));
+				queryStrings = new ArrayList<String>();
+				for (Map<String, String> cranQuery : fileIO.parseCranQueries("data/cran")) queryStrings.add(cranQuery.get("Query"));
+			}
+
+			SearchService searchService = new SearchService(Paths.get("index/cran.index"));
+			try {
+
+				for (double level : ParameterSweep.parseGrid(levels)) {
+
+					System.out.println("Replaying " + queryStrings.size() + " queries in " + mode + " loop at " + (mode.equals(CLOSED) ? (int) level + " clients..." : level + " queries per second..."));
+					if (mode.equals(CLOSED)) results.add(loadGenerator.runClosedLoop(searchService, searcher, queryStrings, (int) level));
+					else results.add(loadGenerator.runOpenLoop(searchService, searcher, queryStrings, level));
+				}
+			}
+			finally {
+				searchService.close();
+			}
+			loadGenerator.printCurve(results);
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
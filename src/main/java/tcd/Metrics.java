@@ -0,0 +1,210 @@
+package tcd;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and latency histograms of the indexing and search hot paths, shared by every thread.
+ * Stages recorded by the Indexer, Searcher and Evaluator:
+ *
+ *    index.document   adding or updating one document, analysis included
+ *    index.analyze    analyzing the fields of one document
+ *    search.prepare   reading every query from the query cache, or parsing them to fill it
+ *    search.query     one query from its text to the ids of its hits
+ *    search.parse     parsing a query, analysis excluded
+ *    search.analyze   analyzing a query
+ *    search.search    collecting the top hits
+ *    search.fetch     reading the ids of the hits
+ *    evaluate         computing the metrics of a run
+ *
+ * The whole registry can be written as JSON or watched through JMX.
+ *
+ */
+public class Metrics implements MetricsMXBean {
+
+	private static final double[] PERCENTILES = {50, 95, 99};
+
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final Map<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final Map<String, Double> gauges = new ConcurrentHashMap<String, Double>();
+
+	/**
+	 * @return the histogram of a stage, created on first use
+	 */
+	public LatencyHistogram histogram(String name) {
+
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+
+			synchronized (histograms) {
+
+				histogram = histograms.get(name);
+				if (histogram == null) {
+
+					histogram = new LatencyHistogram();
+					histograms.put(name, histogram);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Record the duration of a stage
+	 */
+	public void record(String name, long nanos) {
+
+		histogram(name).record(nanos);
+	}
+
+	/**
+	 * @return the counter of the name, created on first use
+	 */
+	public AtomicLong counter(String name) {
+
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+
+			synchronized (counters) {
+
+				counter = counters.get(name);
+				if (counter == null) {
+
+					counter = new AtomicLong();
+					counters.put(name, counter);
+				}
+			}
+		}
+		return counter;
+	}
+
+	public void setGauge(String name, double value) {
+
+		gauges.put(name, value);
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) values.put(entry.getKey(), entry.getValue().get());
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getGauges() {
+
+		return new TreeMap<String, Double>(gauges);
+	}
+
+	@Override
+	public Map<String, Double> getLatenciesMillis() {
+
+		Map<String, Double> values = new TreeMap<String, Double>();
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+
+			LatencyHistogram histogram = entry.getValue();
+			values.put(entry.getKey() + ".count", (double) histogram.getCount());
+			values.put(entry.getKey() + ".total", histogram.getTotalNanos() / 1e6);
+			values.put(entry.getKey() + ".mean", histogram.getMeanNanos() / 1e6);
+			for (double percentile : PERCENTILES) values.put(entry.getKey() + ".p" + (int) percentile, histogram.percentile(percentile) / 1e6);
+			values.put(entry.getKey() + ".max", histogram.getMaxNanos() / 1e6);
+		}
+		return values;
+	}
+
+	@Override
+	public String getJson() {
+
+		StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+		String separator = "";
+		for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+
+			json.append(separator).append("\n    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+			separator = ",";
+		}
+		json.append("\n  },\n  \"gauges\": {");
+		separator = "";
+		for (Map.Entry<String, Double> entry : getGauges().entrySet()) {
+
+			json.append(separator).append("\n    \"").append(entry.getKey()).append("\": ").append(number(entry.getValue()));
+			separator = ",";
+		}
+		json.append("\n  },\n  \"latenciesMillis\": {");
+		separator = "";
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+
+			LatencyHistogram histogram = entry.getValue();
+			json.append(separator).append("\n    \"").append(entry.getKey()).append("\": {\"count\": ").append(histogram.getCount());
+			json.append(", \"total\": ").append(number(histogram.getTotalNanos() / 1e6));
+			json.append(", \"mean\": ").append(number(histogram.getMeanNanos() / 1e6));
+			for (double percentile : PERCENTILES) json.append(", \"p").append((int) percentile).append("\": ").append(number(histogram.percentile(percentile) / 1e6));
+			json.append(", \"max\": ").append(number(histogram.getMaxNanos() / 1e6)).append("}");
+			separator = ",";
+		}
+		return json.append("\n  }\n}\n").toString();
+	}
+
+	private static String number(double value) {
+
+		if (Double.isNaN(value) || Double.isInfinite(value)) return "null";
+		return String.format(Locale.ROOT, "%.4f", value);
+	}
+
+	/**
+	 * Write the metrics as JSON
+	 * @param jsonFile: location of the JSON file, its directory is created if it does not exist
+	 * @throws IOException
+	 */
+	public void writeJson(Path jsonFile) throws IOException {
+
+		File dir = jsonFile.toAbsolutePath().getParent().toFile();
+		if (!dir.exists()) dir.mkdirs();
+		Files.write(jsonFile, getJson().getBytes(Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Publish the metrics on the platform MBean server, so they can be watched with jconsole or any JMX client
+	 * @param name: name of the registry, such as "search"
+	 * @return the object name the metrics are registered under
+	 */
+	public ObjectName registerMBean(String name) {
+
+		try {
+			ObjectName objectName = new ObjectName("tcd:type=Metrics,name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			return objectName;
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Cannot register metrics " + name, e);
+		}
+	}
+
+	@Override
+	public void reset() {
+
+		for (LatencyHistogram histogram : histograms.values()) histogram.reset();
+		for (AtomicLong counter : counters.values()) counter.set(0);
+		gauges.clear();
+	}
+
+	@Override
+	public String toString() {
+		return getJson();
+	}
+}
@@ -0,0 +1,35 @@
+package tcd;
+
+import java.util.Map;
+
+/**
+ * JMX view of a Metrics registry, see Metrics.registerMBean().
+ *
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return every counter, gauge and latency summary as a JSON document
+	 */
+	String getJson();
+
+	/**
+	 * @return value of every counter
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return value of every gauge, such as documents or queries per second
+	 */
+	Map<String, Double> getGauges();
+
+	/**
+	 * @return latency summaries in milliseconds, keyed "<stage>.<statistic>" such as "search.query.p99"
+	 */
+	Map<String, Double> getLatenciesMillis();
+
+	/**
+	 * Forget every recorded value
+	 */
+	void reset();
+}
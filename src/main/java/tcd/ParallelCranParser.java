@@ -0,0 +1,284 @@
+package tcd;
+
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parses cran formatted documents on several threads. A large file is memory-mapped and split into
+ * chunks that start at a ".I" line, and each chunk is decoded as UTF-8 and parsed by its own CranParser.
+ * A directory is read as a collection of corpus files in name order; gzip files, ending in ".gz", are
+ * parsed whole, next to the chunks of the other files.
+ *
+ * Documents come out in the order of the files, the same order as parsing them one after another. Only a
+ * few chunks per thread are parsed ahead of the caller, so memory stays bounded for any corpus size.
+ *
+ */
+public class ParallelCranParser implements Iterator<CranDocument>, Closeable {
+
+	public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+	private static final int WINDOW_BYTES = 64 << 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final int chunkBytes;
+	private final Deque<Path> files;
+	private final Deque<Future<List<CranDocument>>> pending = new ArrayDeque<Future<List<CranDocument>>>();
+	private Iterator<CranDocument> documents = Collections.<CranDocument>emptyList().iterator();
+
+	// File being split into chunks, and the part of it mapped for finding ".I" lines
+	private FileChannel channel = null;
+	private long size = 0;
+	private long position = 0;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	/**
+	 * @param source: cran file, or directory of cran files which may be gzip compressed
+	 * @param threads: number of chunks parsed at once
+	 * @throws IOException
+	 */
+	public ParallelCranParser(Path source, int threads) throws IOException {
+
+		this(source, threads, DEFAULT_CHUNK_BYTES);
+	}
+
+	/**
+	 * @param source: cran file, or directory of cran files which may be gzip compressed
+	 * @param threads: number of chunks parsed at once
+	 * @param chunkBytes: approximate size of the chunks a file is split into
+	 * @throws IOException
+	 */
+	public ParallelCranParser(Path source, int threads, int chunkBytes) throws IOException {
+
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+		if (chunkBytes < 1) throw new IllegalArgumentException("chunkBytes must be at least 1, got " + chunkBytes);
+		this.files = new ArrayDeque<Path>(corpusFiles(source));
+		this.chunkBytes = chunkBytes;
+		this.maxPending = threads * 2;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+
+				// Parsing threads must not keep the JVM alive when the caller stops early
+				Thread thread = new Thread(runnable, "cran-parser");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the regular files of a directory in name order, hidden files excluded, or the source itself
+	 */
+	private static List<Path> corpusFiles(Path source) throws IOException {
+
+		List<Path> files = new ArrayList<Path>();
+		if (!Files.isDirectory(source)) {
+
+			files.add(source);
+			return files;
+		}
+		DirectoryStream<Path> stream = Files.newDirectoryStream(source);
+		try {
+			for (Path file : stream)
+				if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) files.add(file);
+		}
+		finally {
+			stream.close();
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		try {
+			while (!documents.hasNext()) {
+
+				fill();
+				if (pending.isEmpty()) return false;
+				documents = pending.poll().get().iterator();
+				fill();
+			}
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+		catch (ExecutionException e) {
+
+			e.getCause().printStackTrace();
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while parsing", e);
+		}
+		return true;
+	}
+
+	@Override
+	public CranDocument next() {
+
+		if (!hasNext()) throw new NoSuchElementException();
+		return documents.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		executor.shutdownNow();
+		for (Future<List<CranDocument>> future : pending) future.cancel(true);
+		pending.clear();
+		closeFile();
+	}
+
+	/**
+	 * Submit chunks until enough are parsed ahead of the caller or every file is submitted
+	 */
+	private void fill() throws IOException {
+
+		while (pending.size() < maxPending) {
+
+			Callable<List<CranDocument>> task = nextChunk();
+			if (task == null) return;
+			pending.add(executor.submit(task));
+		}
+	}
+
+	/**
+	 * @return the task parsing the next chunk, or null after the last file
+	 */
+	private Callable<List<CranDocument>> nextChunk() throws IOException {
+
+		while (channel == null || position == size) {
+
+			closeFile();
+			final Path file = files.poll();
+			if (file == null) return null;
+
+			// A gzip stream cannot be split, so it is parsed whole by one thread
+			if (file.getFileName().toString().endsWith(".gz")) {
+
+				return new Callable<List<CranDocument>>() {
+
+					@Override
+					public List<CranDocument> call() throws IOException {
+						return parse(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file.toFile()), 1 << 16), UTF8)));
+					}
+				};
+			}
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			size = channel.size();
+			position = 0;
+		}
+
+		long start = position;
+		position = start + chunkBytes < size ? nextRecord(start + chunkBytes) : size;
+		// The mapping stays valid after the channel is closed
+		final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, position - start);
+		return new Callable<List<CranDocument>>() {
+
+			@Override
+			public List<CranDocument> call() throws IOException {
+				return parse(chunk);
+			}
+		};
+	}
+
+	/**
+	 * @param from: offset to start looking at
+	 * @return offset of the first ".I" line at or after an offset, or the file size if there is none
+	 */
+	private long nextRecord(long from) throws IOException {
+
+		for (long offset = from; offset + 1 < size; offset++) {
+
+			if (byteAt(offset) != '.' || byteAt(offset + 1) != 'I' || byteAt(offset - 1) != '\n') continue;
+			if (offset + 2 == size) return offset;
+			byte after = byteAt(offset + 2);
+			if (after == ' ' || after == '\t' || after == '\r' || after == '\n') return offset;
+		}
+		return size;
+	}
+
+	private byte byteAt(long offset) throws IOException {
+
+		if (window == null || offset < windowStart || offset >= windowStart + window.limit()) {
+
+			// Keep one window mapped rather than the whole file, which may be larger than a buffer can address
+			windowStart = Math.max(0, offset - 1);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_BYTES, size - windowStart));
+		}
+		return window.get((int) (offset - windowStart));
+	}
+
+	private void closeFile() throws IOException {
+
+		if (channel != null) channel.close();
+		channel = null;
+		window = null;
+		size = 0;
+		position = 0;
+	}
+
+	/**
+	 * Decode a chunk as UTF-8, replacing malformed input, and parse its documents
+	 */
+	private static List<CranDocument> parse(ByteBuffer chunk) throws IOException {
+
+		CharBuffer chars = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).decode(chunk);
+		return parse(new BufferedReader(new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining())));
+	}
+
+	private static List<CranDocument> parse(BufferedReader reader) throws IOException {
+
+		List<CranDocument> documents = new ArrayList<CranDocument>();
+		CranParser cranParser = new CranParser(reader);
+		try {
+			while (cranParser.hasNext()) documents.add(cranParser.next());
+		}
+		finally {
+			cranParser.close();
+		}
+		return documents;
+	}
+}
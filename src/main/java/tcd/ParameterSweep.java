@@ -0,0 +1,302 @@
+package tcd;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the free parameters of BM25 (k1, b) and LMDirichlet (mu) on the cran judgements. The similarity
+ * is only a search-time setting, so every point of the grid searches the same index through one shared
+ * reader, with queries parsed once. The grid points are searched and evaluated in parallel.
+ *
+ * Grids are given as comma separated values or as from:to:step ranges, for example
+ *
+ *    java tcd.ParameterSweep k1=0.4:2.0:0.2 b=0.1:1.0:0.1 mu=100,500,1000,2000
+ *
+ */
+public class ParameterSweep {
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int hitsPerPage = 1000;
+	private boolean combinedField = false;
+
+	/**
+	 * @param threads: number of grid points searched at once
+	 */
+	public void setThreads(int threads) {
+
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param hitsPerPage: number of hits evaluated for each query
+	 */
+	public void setHitsPerPage(int hitsPerPage) {
+
+		if (hitsPerPage < 1) throw new IllegalArgumentException("hitsPerPage must be at least 1, got " + hitsPerPage);
+		this.hitsPerPage = hitsPerPage;
+	}
+
+	/**
+	 * @param combinedField: search the "All" field, see Searcher.setCombinedField()
+	 */
+	public void setCombinedField(boolean combinedField) {
+
+		this.combinedField = combinedField;
+	}
+
+	/**
+	 * Search and evaluate every BM25 (k1, b) pair and every LMDirichlet mu
+	 * @param searchService: open index to search, with the analyzer it was built with
+	 * @param cranQueryList: list of cran queries
+	 * @param qrels: relevancy judgements
+	 * @param k1s: BM25 term frequency saturation values
+	 * @param bs: BM25 length normalization values
+	 * @param mus: LMDirichlet smoothing values
+	 * @return metrics of every grid point, best MAP first
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public List<SweepResult> sweep(SearchService searchService, List<Map<String, String>> cranQueryList, final Qrels qrels, double[] k1s, double[] bs, double[] mus)
+			throws IOException, ParseException {
+
+		List<String> names = new ArrayList<String>();
+		List<Similarity> similarities = new ArrayList<Similarity>();
+		for (double k1 : k1s) {
+
+			for (double b : bs) {
+
+				names.add(String.format(Locale.ROOT, "BM25(k1=%.2f,b=%.2f)", k1, b));
+				similarities.add(new BM25Similarity((float) k1, (float) b));
+			}
+		}
+		for (double mu : mus) {
+
+			names.add(String.format(Locale.ROOT, "LMDirichlet(mu=%.0f)", mu));
+			similarities.add(new LMDirichletSimilarity((float) mu));
+		}
+
+		final IndexSearcher sharedSearcher = searchService.acquire();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+
+			// Parse the queries once with the analyzer of the index, parsed queries can be shared by threads
+			AnalysisRegistry registry = AnalysisRegistry.getDefault();
+			Analyzer analyzer = registry.getAnalyzer(Searcher.commitUserData(sharedSearcher).get("analyzer"));
+			QueryParser queryParser = Searcher.newQueryParser(analyzer, combinedField);
+			final Query[] queries = new Query[cranQueryList.size()];
+			for (int i = 0; i < queries.length; i++) queries[i] = queryParser.parse(cranQueryList.get(i).get("Query"));
+
+			// Evaluation works on integer ids, read once for every document
+			final int[] docIds = readDocIds(sharedSearcher);
+
+			long start = System.nanoTime();
+			List<Future<SweepResult>> futures = new ArrayList<Future<SweepResult>>(names.size());
+			for (int i = 0; i < names.size(); i++) {
+
+				final String name = names.get(i);
+				final Similarity similarity = similarities.get(i);
+				futures.add(executor.submit(new Callable<SweepResult>() {
+
+					@Override
+					public SweepResult call() throws IOException {
+						return new SweepResult(name, new Evaluator().calculateMetrics(search(sharedSearcher, similarity, queries, docIds), qrels, 1));
+					}
+				}));
+			}
+
+			List<SweepResult> results = new ArrayList<SweepResult>(futures.size());
+			for (Future<SweepResult> future : futures) results.add(future.get());
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println("Evaluated " + results.size() + " parameter settings on " + queries.length + " queries in " + String.format("%.3f", seconds) + " s ("
+					+ String.format("%.1f", results.size() / seconds) + " settings/sec) using " + threads + " thread(s).");
+
+			Collections.sort(results, new Comparator<SweepResult>() {
+
+				@Override
+				public int compare(SweepResult a, SweepResult b) {
+					return Double.compare(b.metrics.get("MAP"), a.metrics.get("MAP"));
+				}
+			});
+			return results;
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sweeping", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Sweep thread failed", e.getCause());
+		}
+		finally {
+
+			executor.shutdownNow();
+			searchService.release(sharedSearcher);
+		}
+	}
+
+	/**
+	 * Search every query with one similarity
+	 * @return ranked document ids of each query, indexed by query number as Evaluator.toRun() does
+	 */
+	private int[][] search(IndexSearcher sharedSearcher, Similarity similarity, Query[] queries, int[] docIds) throws IOException {
+
+		// An index searcher of its own keeps the similarity private to this grid point
+		IndexSearcher isearcher = Searcher.privateSearcher(sharedSearcher);
+		isearcher.setSimilarity(similarity);
+
+		int[][] run = new int[queries.length + 1][];
+		for (int i = 0; i < queries.length; i++) {
+
+			ScoreDoc[] hits = Searcher.topDocs(isearcher, queries[i], hitsPerPage, Searcher.EXACT_TOTAL_HITS).scoreDocs;
+			int[] ranked = new int[hits.length];
+			for (int j = 0; j < hits.length; j++) ranked[j] = docIds[hits[j].doc];
+			run[i + 1] = ranked;
+		}
+		return run;
+	}
+
+	/**
+	 * @return the cran ID of every document, indexed by doc id
+	 */
+	private static int[] readDocIds(IndexSearcher isearcher) throws IOException {
+
+		IndexReader reader = isearcher.getIndexReader();
+		int[] docIds = new int[reader.maxDoc()];
+		for (LeafReaderContext leaf : reader.leaves()) {
+
+			SortedDocValues idValues = leaf.reader().getSortedDocValues("ID");
+			for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+
+				String id;
+				if (idValues != null && idValues.advanceExact(doc)) id = idValues.lookupOrd(idValues.ordValue()).utf8ToString();
+				else id = reader.document(leaf.docBase + doc).get("ID");
+				docIds[leaf.docBase + doc] = id != null ? Integer.parseInt(id) : -1;
+			}
+		}
+		return docIds;
+	}
+
+	/**
+	 * Print the best grid points as a table
+	 * @param results: metrics of the grid points, best first
+	 * @param limit: number of rows to print
+	 */
+	public void printTable(List<SweepResult> results, int limit) {
+
+		System.out.println(String.format("%-5s %-24s %-12s %-12s %-12s %-12s %-12s", "rank", "similarity", "MAP", "Mean Recall", "P@10", "bpref", "nDCG@10"));
+		for (int i = 0; i < Math.min(limit, results.size()); i++) {
+
+			Map<String, Double> metrics = results.get(i).metrics;
+			System.out.println(String.format("%-5d %-24s %-12.4f %-12.4f %-12.4f %-12.4f %-12.4f", i + 1, results.get(i).similarity, metrics.get("MAP"), metrics.get("Mean Recall"),
+					metrics.get("P@10"), metrics.get("bpref"), metrics.get("nDCG@10")));
+		}
+	}
+
+	/**
+	 * @param grid: comma separated values such as "0.9,1.2", or a range such as "0.1:1.0:0.1"
+	 * @return the values of the grid
+	 */
+	static double[] parseGrid(String grid) {
+
+		String[] range = grid.split(":");
+		if (range.length == 3) {
+
+			double from = Double.parseDouble(range[0]);
+			double to = Double.parseDouble(range[1]);
+			double step = Double.parseDouble(range[2]);
+			if (step <= 0) throw new IllegalArgumentException("step must be positive in " + grid);
+			// Counting steps avoids dropping the last value to rounding
+			int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+			double[] values = new double[Math.max(count, 0)];
+			for (int i = 0; i < values.length; i++) values[i] = from + i * step;
+			return values;
+		}
+
+		String[] items = grid.isEmpty() ? new String[0] : grid.split(",");
+		double[] values = new double[items.length];
+		for (int i = 0; i < items.length; i++) values[i] = Double.parseDouble(items[i].trim());
+		return values;
+	}
+
+	/**
+	 * Metrics of one grid point.
+	 */
+	public static class SweepResult {
+
+		public final String similarity;
+		public final Map<String, Double> metrics;
+
+		SweepResult(String similarity, Map<String, Double> metrics) {
+
+			this.similarity = similarity;
+			this.metrics = metrics;
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args: optional grids such as "k1=0.4:2.0:0.2", "b=0.1:1.0:0.1" and "mu=100,500,1000"
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws ParseException {
+
+		String dataDir = "data/cran";
+		double[] k1s = parseGrid("0.4:2.0:0.2");
+		double[] bs = parseGrid("0.1:1.0:0.1");
+		double[] mus = parseGrid("100,250,500,750,1000,1500,2000,2500,3000,5000");
+		for (String arg : args) {
+
+			if (arg.startsWith("k1=")) k1s = parseGrid(arg.substring(3));
+			else if (arg.startsWith("b=")) bs = parseGrid(arg.substring(2));
+			else if (arg.startsWith("mu=")) mus = parseGrid(arg.substring(3));
+			else throw new IllegalArgumentException("Unknown grid " + arg + ", expected k1=, b= or mu=");
+		}
+
+		FileIO fileIO = new FileIO();
+		fileIO.setSnapshotDir(Paths.get("cache"));
+		List<Map<String, String>> cranQueryList = fileIO.parseCranQueries(dataDir);
+		Qrels qrels = fileIO.parseCranQrels(dataDir);
+
+		ParameterSweep parameterSweep = new ParameterSweep();
+		try {
+
+			SearchService searchService = new SearchService(Paths.get("index/cran.index"));
+			try {
+				parameterSweep.printTable(parameterSweep.sweep(searchService, cranQueryList, qrels, k1s, bs, mus), 20);
+			}
+			finally {
+				searchService.close();
+			}
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package tcd;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Cran queries parsed and analyzed once per analyzer and query fields, and cached on disk so later
+ * runs build the Query objects straight from the stored terms without tokenizing or stemming.
+ *
+ * The cache file keeps the parsed query tree rather than bare term lists, since the cran queries use
+ * parser syntax such as brackets and leading dashes. Its layout is a header identifying the analyzer,
+ * fields and query texts, a dictionary of every distinct field and term, and each query as a tree of
+ * boolean, boost and term nodes that refer to the dictionary by number. A query holding any other kind
+ * of node is stored as a marker and parsed at run time.
+ *
+ */
+public class PreparedQueries {
+
+	private static final int MAGIC = 0x43524e51;
+	private static final int VERSION = 1;
+
+	private static final int PARSE_AT_RUN_TIME = 0;
+	private static final int TERM = 1;
+	private static final int BOOLEAN = 2;
+	private static final int BOOST = 3;
+
+	private static final BooleanClause.Occur[] OCCURS = BooleanClause.Occur.values();
+
+	private final Query[] queries;
+	private final boolean fromCache;
+
+	private PreparedQueries(Query[] queries, boolean fromCache) {
+
+		this.queries = queries;
+		this.fromCache = fromCache;
+	}
+
+	/**
+	 * Read the prepared queries from the cache, or parse them and write the cache if it is missing or stale
+	 * @param cacheDir: directory holding the cache files, created if it does not exist
+	 * @param cranQueryList: list of cran queries
+	 * @param analyzerString: name of the analyzer
+	 * @param analyzer: analyzer the queries are parsed with
+	 * @param fields: fields the queries are parsed on
+	 * @param queryParser: parser over the same analyzer and fields, used when the cache is missing or stale
+	 * @return the query of every cran query, in the same order
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static PreparedQueries load(Path cacheDir, List<Map<String, String>> cranQueryList, String analyzerString, Analyzer analyzer, String[] fields,
+			QueryParser queryParser) throws IOException, ParseException {
+
+		String fingerprint = fingerprint(cranQueryList, analyzerString, analyzer, fields);
+		Path cacheFile = cacheDir.resolve("queries-" + analyzerString + "-" + Integer.toHexString(fingerprint.hashCode()) + ".bin");
+		if (Files.exists(cacheFile)) {
+
+			Query[] queries = read(cacheFile, fingerprint, cranQueryList.size());
+			if (queries != null) return new PreparedQueries(queries, true);
+		}
+
+		Query[] queries = new Query[cranQueryList.size()];
+		for (int i = 0; i < queries.length; i++) queries[i] = queryParser.parse(cranQueryList.get(i).get("Query"));
+
+		File dir = cacheDir.toFile();
+		if (!dir.exists()) dir.mkdirs();
+		write(cacheFile, fingerprint, queries);
+		return new PreparedQueries(queries, false);
+	}
+
+	/**
+	 * @return the prepared query, or null if it has to be parsed from its text
+	 */
+	public Query get(int i) {
+		return queries[i];
+	}
+
+	public int size() {
+		return queries.length;
+	}
+
+	/**
+	 * @return true if the queries were read from the cache rather than parsed
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	/**
+	 * Identify everything the parsed queries depend on, so a cache file is only used for the same input
+	 */
+	private static String fingerprint(List<Map<String, String>> cranQueryList, String analyzerString, Analyzer analyzer, String[] fields) {
+
+		CRC32 crc = new CRC32();
+		Charset utf8 = Charset.forName("UTF-8");
+		for (Map<String, String> cranQuery : cranQueryList) {
+
+			crc.update(cranQuery.get("Query").getBytes(utf8));
+			crc.update(0);
+		}
+		// Analyzers defined in analysis.properties share a class, so their definition tells them apart
+		return analyzerString + "|" + analyzer.getClass().getName() + "|" + AnalysisRegistry.getDefault().analyzerConfig(analyzerString) + "|"
+				+ Arrays.toString(fields) + "|" + cranQueryList.size() + "|" + crc.getValue();
+	}
+
+	private static boolean isCacheable(Query query) {
+
+		if (query instanceof TermQuery) return true;
+		if (query instanceof BoostQuery) return isCacheable(((BoostQuery) query).getQuery());
+		if (query instanceof BooleanQuery) {
+
+			for (BooleanClause clause : ((BooleanQuery) query).clauses()) if (!isCacheable(clause.getQuery())) return false;
+			return true;
+		}
+		return false;
+	}
+
+	private static void write(Path cacheFile, String fingerprint, Query[] queries) throws IOException {
+
+		// Number every distinct field and term
+		Map<String, Integer> fieldIds = new HashMap<String, Integer>();
+		Map<BytesRef, Integer> termIds = new HashMap<BytesRef, Integer>();
+		List<String> fieldList = new ArrayList<String>();
+		List<BytesRef> termList = new ArrayList<BytesRef>();
+		for (Query query : queries) if (isCacheable(query)) collectTerms(query, fieldIds, fieldList, termIds, termList);
+
+		// Write a temporary file first so a failed run never leaves a truncated cache
+		Path tmpFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 16));
+		try {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(fingerprint);
+
+			writeVInt(out, fieldList.size());
+			for (String field : fieldList) out.writeUTF(field);
+			writeVInt(out, termList.size());
+			for (BytesRef term : termList) {
+
+				writeVInt(out, term.length);
+				out.write(term.bytes, term.offset, term.length);
+			}
+
+			writeVInt(out, queries.length);
+			for (Query query : queries) {
+
+				if (isCacheable(query)) writeQuery(out, query, fieldIds, termIds);
+				else out.writeByte(PARSE_AT_RUN_TIME);
+			}
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void collectTerms(Query query, Map<String, Integer> fieldIds, List<String> fieldList, Map<BytesRef, Integer> termIds, List<BytesRef> termList) {
+
+		if (query instanceof TermQuery) {
+
+			Term term = ((TermQuery) query).getTerm();
+			if (!fieldIds.containsKey(term.field())) {
+
+				fieldIds.put(term.field(), fieldList.size());
+				fieldList.add(term.field());
+			}
+			if (!termIds.containsKey(term.bytes())) {
+
+				termIds.put(term.bytes(), termList.size());
+				termList.add(term.bytes());
+			}
+		}
+		else if (query instanceof BoostQuery) collectTerms(((BoostQuery) query).getQuery(), fieldIds, fieldList, termIds, termList);
+		else for (BooleanClause clause : ((BooleanQuery) query).clauses()) collectTerms(clause.getQuery(), fieldIds, fieldList, termIds, termList);
+	}
+
+	private static void writeQuery(DataOutputStream out, Query query, Map<String, Integer> fieldIds, Map<BytesRef, Integer> termIds) throws IOException {
+
+		if (query instanceof TermQuery) {
+
+			Term term = ((TermQuery) query).getTerm();
+			out.writeByte(TERM);
+			writeVInt(out, fieldIds.get(term.field()));
+			writeVInt(out, termIds.get(term.bytes()));
+		}
+		else if (query instanceof BoostQuery) {
+
+			out.writeByte(BOOST);
+			out.writeFloat(((BoostQuery) query).getBoost());
+			writeQuery(out, ((BoostQuery) query).getQuery(), fieldIds, termIds);
+		}
+		else {
+
+			BooleanQuery booleanQuery = (BooleanQuery) query;
+			out.writeByte(BOOLEAN);
+			writeVInt(out, booleanQuery.getMinimumNumberShouldMatch());
+			writeVInt(out, booleanQuery.clauses().size());
+			for (BooleanClause clause : booleanQuery.clauses()) {
+
+				out.writeByte(clause.getOccur().ordinal());
+				writeQuery(out, clause.getQuery(), fieldIds, termIds);
+			}
+		}
+	}
+
+	/**
+	 * @return the cached queries, or null if the file was written for other queries, analyzer or fields
+	 */
+	private static Query[] read(Path cacheFile, String fingerprint, int numQueries) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 1 << 16));
+		try {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) return null;
+
+			String[] fields = new String[readVInt(in)];
+			for (int i = 0; i < fields.length; i++) fields[i] = in.readUTF();
+			BytesRef[] terms = new BytesRef[readVInt(in)];
+			for (int i = 0; i < terms.length; i++) {
+
+				byte[] bytes = new byte[readVInt(in)];
+				in.readFully(bytes);
+				terms[i] = new BytesRef(bytes);
+			}
+
+			Query[] queries = new Query[readVInt(in)];
+			if (queries.length != numQueries) return null;
+			for (int i = 0; i < queries.length; i++) queries[i] = readQuery(in, fields, terms);
+			return queries;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static Query readQuery(DataInputStream in, String[] fields, BytesRef[] terms) throws IOException {
+
+		int type = in.readByte();
+		switch (type) {
+
+		case PARSE_AT_RUN_TIME:
+			return null;
+		case TERM:
+			String field = fields[readVInt(in)];
+			return new TermQuery(new Term(field, terms[readVInt(in)]));
+		case BOOST:
+			float boost = in.readFloat();
+			return new BoostQuery(readQuery(in, fields, terms), boost);
+		case BOOLEAN:
+			BooleanQuery.Builder builder = new BooleanQuery.Builder();
+			builder.setMinimumNumberShouldMatch(readVInt(in));
+			int numClauses = readVInt(in);
+			for (int i = 0; i < numClauses; i++) {
+
+				BooleanClause.Occur occur = OCCURS[in.readByte()];
+				builder.add(readQuery(in, fields, terms), occur);
+			}
+			return builder.build();
+		default:
+			throw new IOException("Corrupt query cache, unknown node type " + type);
+		}
+	}
+
+	private static void writeVInt(DataOutputStream out, int value) throws IOException {
+
+		while ((value & ~0x7f) != 0) {
+
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVInt(DataInputStream in) throws IOException {
+
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+
+			int b = in.readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+}
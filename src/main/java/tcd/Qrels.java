@@ -0,0 +1,185 @@
+package tcd;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graded relevancy judgements indexed by integer query number and document id.
+ * The judged documents of each query are kept as a sorted int array with their grades alongside,
+ * which stays compact for large collections and is searched without boxing.
+ *
+ * Grades follow the cran relevancy scale: 1 is a complete answer down to 4 for references of minimum
+ * interest, and -1 marks the document the question was written from. Like FileIO.parseCranRel(),
+ * grades up to 3 (and -1) count as relevant and grade 4 as judged non-relevant.
+ *
+ */
+public class Qrels {
+
+	public static final int NOT_JUDGED = Integer.MIN_VALUE;
+
+	private static final int[] NONE = new int[0];
+
+	private int[][] docs = new int[0][];
+	private int[][] grades = new int[0][];
+	private int[] relevantCounts = new int[0];
+	private int[] nonRelevantCounts = new int[0];
+	private int[][] idealGains = new int[0][];
+
+	/**
+	 * Build judgements from the output of FileIO.parseCranRel(). Since that output is binary,
+	 * relevant documents get grade 1 and irrelevant ones grade 4.
+	 * @param cranRelDict: relevant and irrelevant documents of each query
+	 * @return judgements of every query in cranRelDict
+	 */
+	public static Qrels fromCranRelDict(Map<String, List<List<String>>> cranRelDict) {
+
+		Qrels qrels = new Qrels();
+		for (Map.Entry<String, List<List<String>>> entry : cranRelDict.entrySet()) {
+
+			List<String> relevant = entry.getValue().get(0);
+			List<String> irrelevant = entry.getValue().get(1);
+			int[] docs = new int[relevant.size() + irrelevant.size()];
+			int[] grades = new int[docs.length];
+			for (int i = 0; i < relevant.size(); i++) {
+
+				docs[i] = Integer.parseInt(relevant.get(i));
+				grades[i] = 1;
+			}
+			for (int i = 0; i < irrelevant.size(); i++) {
+
+				docs[relevant.size() + i] = Integer.parseInt(irrelevant.get(i));
+				grades[relevant.size() + i] = 4;
+			}
+			qrels.setJudgements(Integer.parseInt(entry.getKey()), docs, grades);
+		}
+		return qrels;
+	}
+
+	public static boolean isRelevantGrade(int grade) {
+
+		return grade != NOT_JUDGED && grade <= 3;
+	}
+
+	/**
+	 * Gain of a grade for nDCG, from 4 for a complete answer down to 1 for minimum interest
+	 */
+	public static int gain(int grade) {
+
+		if (grade == -1) return 4;
+		if (grade < 1 || grade > 4) return 0;
+		return 5 - grade;
+	}
+
+	/**
+	 * Set the judged documents of a query
+	 * @param query: query number
+	 * @param judgedDocs: ids of the judged documents, in any order
+	 * @param judgedGrades: grade of each judged document
+	 */
+	public void setJudgements(int query, int[] judgedDocs, int[] judgedGrades) {
+
+		if (query >= docs.length) {
+
+			int length = Math.max(query + 1, docs.length * 2);
+			docs = Arrays.copyOf(docs, length);
+			grades = Arrays.copyOf(grades, length);
+			relevantCounts = Arrays.copyOf(relevantCounts, length);
+			nonRelevantCounts = Arrays.copyOf(nonRelevantCounts, length);
+			idealGains = Arrays.copyOf(idealGains, length);
+		}
+
+		// Sort documents and grades together by packing them into longs
+		long[] packed = new long[judgedDocs.length];
+		for (int i = 0; i < packed.length; i++) packed[i] = ((long) judgedDocs[i] << 32) | (judgedGrades[i] & 0xffffffffL);
+		Arrays.sort(packed);
+
+		int[] sortedDocs = new int[packed.length];
+		int[] sortedGrades = new int[packed.length];
+		int[] gains = new int[packed.length];
+		int relevant = 0;
+		for (int i = 0; i < packed.length; i++) {
+
+			sortedDocs[i] = (int) (packed[i] >> 32);
+			sortedGrades[i] = (int) packed[i];
+			gains[i] = -gain(sortedGrades[i]);
+			if (isRelevantGrade(sortedGrades[i])) relevant++;
+		}
+		// Negated gains sort into descending order
+		Arrays.sort(gains);
+		for (int i = 0; i < gains.length; i++) gains[i] = -gains[i];
+
+		docs[query] = sortedDocs;
+		grades[query] = sortedGrades;
+		relevantCounts[query] = relevant;
+		nonRelevantCounts[query] = packed.length - relevant;
+		idealGains[query] = gains;
+	}
+
+	/**
+	 * @return true if the query has judgements
+	 */
+	public boolean hasQuery(int query) {
+
+		return query < docs.length && docs[query] != null;
+	}
+
+	/**
+	 * @return grade of the document for the query, or NOT_JUDGED
+	 */
+	public int grade(int query, int doc) {
+
+		if (!hasQuery(query)) return NOT_JUDGED;
+		int index = Arrays.binarySearch(docs[query], doc);
+		return index >= 0 ? grades[query][index] : NOT_JUDGED;
+	}
+
+	/**
+	 * @return largest query number with judgements, or -1 if there are none
+	 */
+	public int maxQuery() {
+
+		int query = docs.length - 1;
+		while (query >= 0 && docs[query] == null) query--;
+		return query;
+	}
+
+	/**
+	 * @return ids of the judged documents of a query, in ascending order
+	 */
+	public int[] judgedDocs(int query) {
+
+		return hasQuery(query) ? docs[query] : NONE;
+	}
+
+	/**
+	 * @return grades of the judged documents of a query, in the order of judgedDocs()
+	 */
+	public int[] judgedGrades(int query) {
+
+		return hasQuery(query) ? grades[query] : NONE;
+	}
+
+	public boolean isRelevant(int query, int doc) {
+
+		return isRelevantGrade(grade(query, doc));
+	}
+
+	public int relevantCount(int query) {
+
+		return hasQuery(query) ? relevantCounts[query] : 0;
+	}
+
+	public int nonRelevantCount(int query) {
+
+		return hasQuery(query) ? nonRelevantCounts[query] : 0;
+	}
+
+	/**
+	 * @return gains of the judged documents of a query, best first
+	 */
+	public int[] idealGains(int query) {
+
+		return hasQuery(query) ? idealGains[query] : NONE;
+	}
+}
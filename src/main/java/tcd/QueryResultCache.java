@@ -0,0 +1,171 @@
+package tcd;
+
+import org.apache.lucene.index.IndexReader;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of search results, shared by all threads of a Searcher.
+ * Entries are keyed by the index reader they were computed on, the analyzer, the similarity,
+ * the analyzed query and the number of hits, so an entry is only reused for an identical search.
+ * Several readers, such as the indexes of different analyzers, share the cache without evicting
+ * each other; the entries of a reader are dropped once it is closed, e.g. after a refresh.
+ *
+ */
+public class QueryResultCache {
+
+	private final int maxEntries;
+	private final long maxHits;
+
+	private final LinkedHashMap<Key, Searcher.SearchResult> entries = new LinkedHashMap<Key, Searcher.SearchResult>(16, 0.75f, true);
+	private final Set<IndexReader.CacheKey> generations = new HashSet<IndexReader.CacheKey>();
+	private long cachedHits = 0;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * @param maxEntries: maximum number of cached queries
+	 * @param maxHits: maximum number of hits held across all cached queries
+	 */
+	public QueryResultCache(int maxEntries, long maxHits) {
+
+		this.maxEntries = maxEntries;
+		this.maxHits = maxHits;
+	}
+
+	/**
+	 * Look up the result of a search
+	 * @param cacheHelper: cache helper of the index reader searched
+	 * @return the cached result, or null
+	 */
+	synchronized Searcher.SearchResult get(IndexReader.CacheHelper cacheHelper, String analyzer, String similarity, String analyzedQuery, int topK) {
+
+		Searcher.SearchResult result = entries.get(new Key(cacheHelper.getKey(), analyzer, similarity, analyzedQuery, topK));
+		if (result != null) {
+
+			hitCount++;
+			return result;
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Cache the result of a search. The result must not be modified afterwards.
+	 * @param cacheHelper: cache helper of the index reader searched
+	 */
+	synchronized void put(IndexReader.CacheHelper cacheHelper, String analyzer, String similarity, String analyzedQuery, int topK, Searcher.SearchResult result) {
+
+		if (result.ids.length > maxHits) return;
+
+		IndexReader.CacheKey generation = cacheHelper.getKey();
+		if (generations.add(generation)) {
+
+			cacheHelper.addClosedListener(new IndexReader.ClosedListener() {
+
+				@Override
+				public void onClose(IndexReader.CacheKey key) {
+					invalidate(key);
+				}
+			});
+		}
+
+		Searcher.SearchResult previous = entries.put(new Key(generation, analyzer, similarity, analyzedQuery, topK), result);
+		if (previous != null) cachedHits -= previous.ids.length;
+		cachedHits += result.ids.length;
+
+		// Evict least recently used entries until both bounds hold
+		Iterator<Map.Entry<Key, Searcher.SearchResult>> it = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || cachedHits > maxHits) && it.hasNext()) {
+
+			cachedHits -= it.next().getValue().ids.length;
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Drop the entries of a closed index reader
+	 */
+	private synchronized void invalidate(IndexReader.CacheKey generation) {
+
+		generations.remove(generation);
+		Iterator<Map.Entry<Key, Searcher.SearchResult>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+
+			Map.Entry<Key, Searcher.SearchResult> entry = it.next();
+			if (entry.getKey().generation != generation) continue;
+			cachedHits -= entry.getValue().ids.length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Drop every entry
+	 */
+	public synchronized void invalidate() {
+
+		entries.clear();
+		cachedHits = 0;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", entries=" + entries.size() + ", cached hits=" + cachedHits;
+	}
+
+	private static class Key {
+
+		private final IndexReader.CacheKey generation;
+		private final String analyzer;
+		private final String similarity;
+		private final String analyzedQuery;
+		private final int topK;
+		private final int hash;
+
+		Key(IndexReader.CacheKey generation, String analyzer, String similarity, String analyzedQuery, int topK) {
+
+			this.generation = generation;
+			this.analyzer = analyzer;
+			this.similarity = similarity;
+			this.analyzedQuery = analyzedQuery;
+			this.topK = topK;
+			this.hash = 31 * (31 * (31 * (31 * generation.hashCode() + analyzer.hashCode()) + similarity.hashCode()) + analyzedQuery.hashCode()) + topK;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return generation == other.generation && topK == other.topK && analyzer.equals(other.analyzer) && similarity.equals(other.similarity) && analyzedQuery.equals(other.analyzedQuery);
+		}
+	}
+}
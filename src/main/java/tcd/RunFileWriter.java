@@ -0,0 +1,192 @@
+package tcd;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a TREC run file to disk one query at a time, through a single reusable buffer.
+ * Lines are encoded straight into the buffer and scores are formatted without creating strings,
+ * so memory use does not grow with the number of queries or hits.
+ * A run file whose name ends with ".gz" is written gzip compressed.
+ *
+ */
+public class RunFileWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Longest score written by putScore()
+	private static final int MAX_SCORE_LENGTH = 32;
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte[] digits = new byte[20];
+	private final String runTag;
+
+	/**
+	 * @param runFile: location of the run file, compressed if it ends with ".gz"
+	 * @param runTag: name of the run written in the last column
+	 * @throws IOException
+	 */
+	public RunFileWriter(Path runFile, String runTag) throws IOException {
+
+		this.runTag = runTag;
+		if (runFile.getFileName().toString().endsWith(".gz"))
+			channel = Channels.newChannel(new GZIPOutputStream(new FileOutputStream(runFile.toFile()), BUFFER_SIZE));
+		else
+			channel = FileChannel.open(runFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Append the ranking of one query
+	 * @param queryNo: query number written in the first column
+	 * @param ids: ranked document ids
+	 * @param scores: score of each document
+	 * @throws IOException
+	 */
+	public void writeQuery(String queryNo, String[] ids, float[] scores) throws IOException {
+
+		for (int i = 0; i < ids.length; i++) {
+
+			ensureCapacity(queryNo.length() * 3 + ids[i].length() * 3 + runTag.length() * 3 + MAX_SCORE_LENGTH + 8);
+			putString(queryNo);
+			putString(" 0 ");
+			putString(ids[i]);
+			putString(" 0 ");
+			putScore(scores[i]);
+			buffer.put((byte) ' ');
+			putString(runTag);
+			buffer.put((byte) '\n');
+		}
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+
+		if (buffer.remaining() < length) flush();
+		if (buffer.remaining() < length) throw new IOException("Run file line longer than " + BUFFER_SIZE + " bytes");
+	}
+
+	private void flush() throws IOException {
+
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Encode a string as UTF-8 into the buffer, which must have room for three bytes per char
+	 */
+	private void putString(String value) {
+
+		for (int i = 0; i < value.length(); i++) {
+
+			char c = value.charAt(i);
+			if (c < 0x80) buffer.put((byte) c);
+			else if (Character.isSurrogate(c)) {
+
+				// Rare enough to afford the allocation
+				buffer.put(value.substring(i).getBytes(Charset.forName("UTF-8")));
+				return;
+			}
+			else if (c < 0x800) {
+
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+			else {
+
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	/**
+	 * Write a score with 9 significant digits, enough to tell any two floats apart, so the run file
+	 * ranks documents exactly as the scores do
+	 */
+	private void putScore(float score) {
+
+		double value = score;
+		if (Float.isNaN(score) || Float.isInfinite(score) || Math.abs(value) >= 1e9 || (value != 0 && Math.abs(value) < 1e-9)) {
+
+			putString(Float.toString(score));
+			return;
+		}
+		if (value < 0) {
+
+			buffer.put((byte) '-');
+			value = -value;
+		}
+
+		// Number of digits before the decimal point, then as many decimals as needed for 9 significant digits
+		int integerDigits = 1;
+		while (integerDigits < 10 && value >= POWERS_OF_TEN[integerDigits]) integerDigits++;
+		int decimals = value >= 1 ? 9 - integerDigits : 8 + leadingFractionZeros(value) + 1;
+		if (decimals < 1) decimals = 1;
+		if (decimals > 17) decimals = 17;
+
+		long scaled = Math.round(value * POWERS_OF_TEN[decimals]);
+		long integerPart = scaled / POWERS_OF_TEN[decimals];
+		long fraction = scaled % POWERS_OF_TEN[decimals];
+
+		putLong(integerPart);
+		buffer.put((byte) '.');
+
+		// Drop trailing zeros of the fraction, keeping at least one digit
+		while (decimals > 1 && fraction % 10 == 0) {
+
+			fraction /= 10;
+			decimals--;
+		}
+		for (int i = decimals - 1; i >= 0; i--) {
+
+			digits[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		buffer.put(digits, 0, decimals);
+	}
+
+	private static int leadingFractionZeros(double value) {
+
+		int zeros = 0;
+		while (zeros < 17 && value * POWERS_OF_TEN[zeros + 1] < 1) zeros++;
+		return zeros;
+	}
+
+	private void putLong(long value) {
+
+		int length = 0;
+		do {
+			digits[length++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		for (int i = length - 1; i >= 0; i--) buffer.put(digits[i]);
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
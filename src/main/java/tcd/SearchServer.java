@@ -0,0 +1,372 @@
+package tcd;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP search endpoint on the JDK HttpServer. Every request searches the same SearchService,
+ * so concurrent clients share one open index:
+ *
+ *    GET  /search?q=<query>&k=10&fields=Title,Abstract&similarity=BM25
+ *    POST /search/batch?k=10&fields=Title,Abstract&similarity=BM25   with one query per line of the body
+ *
+ * k, fields and similarity are optional: 10 hits, the fields searched by the Searcher and the similarity
+ * the index was built with. fields lists cran fields or the combined "All" field. Both endpoints answer JSON such as
+ *
+ *    {"query": "...", "tookMicros": 812, "hits": [{"id": "51", "score": 17.2045}, ...]}
+ *
+ * and the batch endpoint a "results" array of those, in the order of the queries. Requests run on virtual
+ * threads when the JVM has them (Java 21 and later), on a fixed pool of threads otherwise.
+ *
+ */
+public class SearchServer implements Closeable {
+
+	public static final int DEFAULT_HITS = 10;
+	private static final int MAX_HITS = 10000;
+	private static final int MAX_BATCH_QUERIES = 10000;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Set<String> FIELDS = new LinkedHashSet<String>();
+	static {
+		FIELDS.addAll(Arrays.asList(Searcher.queryFields(false)));
+		FIELDS.addAll(Arrays.asList(Searcher.queryFields(true)));
+	}
+
+	private final SearchService searchService;
+	private final Searcher searcher;
+	private final ExecutorService executor;
+	private final HttpServer server;
+
+	/**
+	 * @param searchService: open index searched by every request
+	 * @param searcher: searcher running the queries, with its result cache and metrics if any
+	 * @param address: address to listen on, port 0 picks a free port
+	 * @param threads: number of request threads when the JVM has no virtual threads
+	 * @throws IOException
+	 */
+	public SearchServer(SearchService searchService, Searcher searcher, InetSocketAddress address, int threads) throws IOException {
+
+		this.searchService = searchService;
+		this.searcher = searcher;
+		this.executor = newExecutor(threads);
+		this.server = HttpServer.create(address, 0);
+		server.createContext("/search", new SearchHandler());
+		server.createContext("/search/batch", new BatchHandler());
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or a fixed pool of threads before Java 21
+	 */
+	static ExecutorService newExecutor(int threads) {
+
+		try {
+			// Looked up by reflection so the project still builds and runs on older JVMs
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	public void start() {
+
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop accepting requests, the search service stays open
+	 */
+	@Override
+	public void close() {
+
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Answers GET /search.
+	 */
+	private class SearchHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+
+			try {
+				if (!isContextPath(exchange)) return;
+				if (!exchange.getRequestMethod().equals("GET")) {
+
+					exchange.getResponseHeaders().set("Allow", "GET");
+					sendError(exchange, 405, "Use GET /search?q=<query>");
+					return;
+				}
+
+				Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+				String queryString = parameters.get("q");
+				if (queryString == null || queryString.trim().isEmpty()) throw new IllegalArgumentException("Missing query parameter q");
+
+				StringBuilder json = new StringBuilder();
+				appendResult(json, queryString, parameters);
+				send(exchange, 200, json.append('\n').toString());
+			}
+			catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+			}
+			catch (ParseException e) {
+				sendError(exchange, 400, "Cannot parse query: " + e.getMessage());
+			}
+			catch (IOException e) {
+
+				e.printStackTrace();
+				sendError(exchange, 500, "Search failed: " + e.getMessage());
+			}
+			catch (RuntimeException e) {
+
+				// Such as too many clauses in an expanded query, which would otherwise drop the exchange unanswered
+				e.printStackTrace();
+				sendError(exchange, 500, "Search failed: " + e);
+			}
+			finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Answers POST /search/batch, searching the queries one after another.
+	 */
+	private class BatchHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+
+			try {
+				if (!isContextPath(exchange)) return;
+				if (!exchange.getRequestMethod().equals("POST")) {
+
+					exchange.getResponseHeaders().set("Allow", "POST");
+					sendError(exchange, 405, "Use POST /search/batch with one query per line");
+					return;
+				}
+
+				Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+				List<String> queryStrings = new ArrayList<String>();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF8));
+				String line;
+				while ((line = reader.readLine()) != null) {
+
+					if (line.trim().isEmpty()) continue;
+					if (queryStrings.size() == MAX_BATCH_QUERIES) throw new IllegalArgumentException("A batch holds at most " + MAX_BATCH_QUERIES + " queries");
+					queryStrings.add(line);
+				}
+
+				long start = System.nanoTime();
+				StringBuilder json = new StringBuilder("{\"results\": [");
+				for (int i = 0; i < queryStrings.size(); i++) {
+
+					json.append(i == 0 ? "\n  " : ",\n  ");
+					appendResult(json, queryStrings.get(i), parameters);
+				}
+				json.append("\n], \"tookMicros\": ").append((System.nanoTime() - start) / 1000).append("}\n");
+				send(exchange, 200, json.toString());
+			}
+			catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+			}
+			catch (ParseException e) {
+				sendError(exchange, 400, "Cannot parse query: " + e.getMessage());
+			}
+			catch (IOException e) {
+
+				e.printStackTrace();
+				sendError(exchange, 500, "Search failed: " + e.getMessage());
+			}
+			catch (RuntimeException e) {
+
+				e.printStackTrace();
+				sendError(exchange, 500, "Search failed: " + e);
+			}
+			finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Search a query and append its hits as a JSON object
+	 */
+	private void appendResult(StringBuilder json, String queryString, Map<String, String> parameters) throws IOException, ParseException {
+
+		int hits = DEFAULT_HITS;
+		if (parameters.containsKey("k")) {
+
+			try {
+				hits = Integer.parseInt(parameters.get("k"));
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("k must be a number, got " + parameters.get("k"));
+			}
+			if (hits < 1 || hits > MAX_HITS) throw new IllegalArgumentException("k must be between 1 and " + MAX_HITS + ", got " + hits);
+		}
+
+		String[] fields = null;
+		if (parameters.containsKey("fields")) {
+
+			fields = parameters.get("fields").split(",");
+			for (String field : fields) if (!FIELDS.contains(field)) throw new IllegalArgumentException("Unknown field " + field + ", expected some of " + FIELDS);
+		}
+
+		String similarity = parameters.get("similarity");
+		if (similarity != null && !AnalysisRegistry.getDefault().similarityName(similarity).equals(similarity))
+			throw new IllegalArgumentException("Unknown similarity " + similarity);
+
+		long start = System.nanoTime();
+		Searcher.SearchResult result = searcher.search(searchService, queryString, hits, fields, similarity);
+		long tookMicros = (System.nanoTime() - start) / 1000;
+
+		json.append("{\"query\": ");
+		appendString(json, queryString);
+		json.append(", \"tookMicros\": ").append(tookMicros).append(", \"hits\": [");
+		for (int j = 0; j < result.ids.length; j++) {
+
+			if (j > 0) json.append(", ");
+			json.append("{\"id\": ");
+			appendString(json, result.ids[j]);
+			json.append(", \"score\": ").append(result.scores[j]).append('}');
+		}
+		json.append("]}");
+	}
+
+	/**
+	 * A context also receives the paths below it, such as /search/anything, which are answered 404 here
+	 * @return true if the request is for the path of its handler
+	 */
+	private static boolean isContextPath(HttpExchange exchange) throws IOException {
+
+		String path = exchange.getRequestURI().getPath();
+		if (path.equals(exchange.getHttpContext().getPath())) return true;
+		sendError(exchange, 404, "No endpoint at " + path);
+		return false;
+	}
+
+	/**
+	 * @return the decoded parameters of a URL query string
+	 */
+	private static Map<String, String> parameters(String rawQuery) throws UnsupportedEncodingException {
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (rawQuery == null) return parameters;
+		for (String pair : rawQuery.split("&")) {
+
+			if (pair.isEmpty()) continue;
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+			String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+			parameters.put(name, value);
+		}
+		return parameters;
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') json.append('\\').append(c);
+			else if (c == '\n') json.append("\\n");
+			else if (c == '\r') json.append("\\r");
+			else if (c == '\t') json.append("\\t");
+			else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+			else json.append(c);
+		}
+		json.append('"');
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+
+		StringBuilder json = new StringBuilder("{\"error\": ");
+		appendString(json, message != null ? message : "");
+		send(exchange, status, json.append("}\n").toString());
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+
+		byte[] body = json.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * Main method
+	 * @param args: optional port to listen on, 8080 by default
+	 */
+	public static void main(String[] args) {
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		Searcher searcher = new Searcher();
+		Metrics metrics = new Metrics();
+		metrics.registerMBean("server");
+		searcher.setMetrics(metrics);
+		searcher.setResultCache(new QueryResultCache(10000, 10000000));
+		try {
+
+			// Pick up documents committed by the Indexer while serving
+			final SearchService searchService = new SearchService(Paths.get("index/cran.index"));
+			searchService.startRefresh(1000);
+			final SearchServer searchServer = new SearchServer(searchService, searcher, new InetSocketAddress(port), Runtime.getRuntime().availableProcessors());
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+
+				@Override
+				public void run() {
+
+					searchServer.close();
+					try {
+						searchService.close();
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			searchServer.start();
+			System.out.println("Listening on http://localhost:" + searchServer.getPort() + "/search?q=<query>, press Ctrl+C to stop.");
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package tcd;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an index open for as long as it is needed, sharing it between searches through a SearcherManager.
+ * The service can refresh itself in the background, so documents committed by the Indexer become
+ * searchable without reopening the index.
+ *
+ * An index written with IndexOptions.setShards() is opened as a whole: one SearcherManager per shard,
+ * and acquire() returns a ShardedIndexSearcher searching every shard at once.
+ *
+ */
+public class SearchService implements Closeable {
+
+	private final Directory[] directories;
+	private final boolean ownsDirectory;
+	private final SearcherManager[] searcherManagers;
+	private ExecutorService shardExecutor;
+	private ScheduledExecutorService refresher;
+
+	// Reader over the shards handed out by acquire(), replaced when a shard is refreshed
+	private MultiReader shardsReader;
+
+	/**
+	 * Open the index stored on disk, or all of its shards if it was written as shards
+	 * @param indexFile: location of the index file
+	 * @throws IOException
+	 */
+	public SearchService(Path indexFile) throws IOException {
+
+		this(indexFile, DirectoryFactory.getDefault());
+	}
+
+	/**
+	 * Open the index, or all of its shards, through a directory factory
+	 * @param indexFile: location of the index file
+	 * @param directoryFactory: storage the index was written to, such as memory mode
+	 * @throws IOException
+	 */
+	public SearchService(Path indexFile, DirectoryFactory directoryFactory) throws IOException {
+
+		this(openDirectories(indexFile, directoryFactory), true);
+	}
+
+	/**
+	 * Open an index in the given directory. The directory is not closed with the service.
+	 * @param directory: directory holding a committed index
+	 * @throws IOException
+	 */
+	public SearchService(Directory directory) throws IOException {
+
+		this(new Directory[] {directory}, false);
+	}
+
+	/**
+	 * Search near-real-time on the documents of a live index writer, including uncommitted ones
+	 * @param iwriter: index writer to search
+	 * @throws IOException
+	 */
+	public SearchService(IndexWriter iwriter) throws IOException {
+
+		this.directories = new Directory[] {iwriter.getDirectory()};
+		this.ownsDirectory = false;
+		this.searcherManagers = new SearcherManager[] {new SearcherManager(iwriter, null)};
+	}
+
+	private SearchService(Directory[] directories, boolean ownsDirectory) throws IOException {
+
+		this.directories = directories;
+		this.ownsDirectory = ownsDirectory;
+		this.searcherManagers = new SearcherManager[directories.length];
+		try {
+			for (int i = 0; i < directories.length; i++) searcherManagers[i] = new SearcherManager(directories[i], null);
+		}
+		catch (IOException e) {
+
+			for (SearcherManager searcherManager : searcherManagers) if (searcherManager != null) searcherManager.close();
+			if (ownsDirectory) for (Directory directory : directories) directory.close();
+			throw e;
+		}
+		if (directories.length > 1) shardExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+
+				Thread thread = new Thread(runnable, "search-service-shard-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the directory of the index, or of each of its shards named shard-0, shard-1, ... as
+	 *         recorded by the Indexer in the commit of the first shard
+	 */
+	private static Directory[] openDirectories(Path indexFile, DirectoryFactory directoryFactory) throws IOException {
+
+		if (!directoryFactory.exists(indexFile.resolve("shard-0"))) return new Directory[] {directoryFactory.open(indexFile)};
+
+		Directory firstShard = directoryFactory.open(indexFile.resolve("shard-0"));
+		int shards;
+		try {
+			shards = Integer.parseInt(SegmentInfos.readLatestCommit(firstShard).getUserData().get("shards"));
+		}
+		catch (NumberFormatException e) {
+
+			firstShard.close();
+			throw new IOException(indexFile + " has no valid shard count in its first shard", e);
+		}
+		catch (IOException e) {
+
+			firstShard.close();
+			throw e;
+		}
+
+		Directory[] directories = new Directory[shards];
+		directories[0] = firstShard;
+		for (int i = 1; i < shards; i++) directories[i] = directoryFactory.open(indexFile.resolve("shard-" + i));
+		return directories;
+	}
+
+	/**
+	 * Acquire the current searcher. Every call must be paired with release().
+	 * @return searcher over the latest refreshed view of the index
+	 * @throws IOException
+	 */
+	public IndexSearcher acquire() throws IOException {
+
+		if (searcherManagers.length == 1) return searcherManagers[0].acquire();
+
+		IndexSearcher[] shardSearchers = new IndexSearcher[searcherManagers.length];
+		try {
+			for (int i = 0; i < searcherManagers.length; i++) shardSearchers[i] = searcherManagers[i].acquire();
+			return new ShardedIndexSearcher(acquireShardsReader(shardSearchers), shardSearchers, shardExecutor);
+		}
+		catch (IOException e) {
+
+			for (int i = 0; i < shardSearchers.length; i++) if (shardSearchers[i] != null) searcherManagers[i].release(shardSearchers[i]);
+			throw e;
+		}
+	}
+
+	/**
+	 * Share one reader over the shards between searches until a shard changes, so searches on the same
+	 * view of the shards also share their statistics. The reader stays open while a searcher holds it.
+	 */
+	private synchronized MultiReader acquireShardsReader(IndexSearcher[] shardSearchers) throws IOException {
+
+		boolean changed = shardsReader == null;
+		for (int i = 0; i < shardSearchers.length && !changed; i++)
+			changed = shardsReader.getContext().children().get(i).reader() != shardSearchers[i].getIndexReader();
+
+		if (changed) {
+
+			IndexReader[] shardReaders = new IndexReader[shardSearchers.length];
+			for (int i = 0; i < shardSearchers.length; i++) shardReaders[i] = shardSearchers[i].getIndexReader();
+			if (shardsReader != null) shardsReader.decRef();
+			shardsReader = new MultiReader(shardReaders, false);
+		}
+		shardsReader.incRef();
+		return shardsReader;
+	}
+
+	public void release(IndexSearcher isearcher) throws IOException {
+
+		if (searcherManagers.length == 1) {
+
+			searcherManagers[0].release(isearcher);
+			return;
+		}
+
+		ShardedIndexSearcher shardedSearcher = (ShardedIndexSearcher) isearcher;
+		for (int i = 0; i < searcherManagers.length; i++) searcherManagers[i].release(shardedSearcher.getShardSearcher(i));
+		shardedSearcher.getIndexReader().decRef();
+	}
+
+	/**
+	 * Pick up changes committed since the last refresh, if there are any
+	 * @return true if the searcher is up to date
+	 * @throws IOException
+	 */
+	public boolean refresh() throws IOException {
+
+		boolean upToDate = true;
+		for (SearcherManager searcherManager : searcherManagers) upToDate &= searcherManager.maybeRefresh();
+		return upToDate;
+	}
+
+	/**
+	 * @return number of shards of the index, 1 if it is a single index
+	 */
+	public int getShardCount() {
+		return searcherManagers.length;
+	}
+
+	/**
+	 * Refresh the searcher periodically on a background thread
+	 * @param intervalMillis: time between two refreshes
+	 */
+	public synchronized void startRefresh(long intervalMillis) {
+
+		if (refresher != null) return;
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+
+				Thread thread = new Thread(runnable, "search-service-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		refresher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					refresh();
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return directory of the index, or of its first shard
+	 */
+	public Directory getDirectory() {
+		return directories[0];
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (refresher != null) {
+
+			refresher.shutdownNow();
+			refresher = null;
+		}
+		if (shardExecutor != null) shardExecutor.shutdownNow();
+		if (shardsReader != null) {
+
+			shardsReader.decRef();
+			shardsReader = null;
+		}
+		for (SearcherManager searcherManager : searcherManagers) searcherManager.close();
+		if (ownsDirectory) for (Directory directory : directories) directory.close();
+	}
+}
@@ -1,35 +1,37 @@
 package tcd;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.KeywordAnalyzer;
-import org.apache.lucene.analysis.core.SimpleAnalyzer;
-import org.apache.lucene.analysis.core.StopAnalyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.similarities.BM25Similarity;
-import org.apache.lucene.search.similarities.ClassicSimilarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.TopScoreDocCollector;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implements search functionality from index created using Indexer wrapper.
@@ -37,7 +39,86 @@ import java.util.Map;
  */
 public class Searcher {
 
+	public static final int EXACT_TOTAL_HITS = Integer.MAX_VALUE;
+	
 	private int HITS_PER_PAGE = 1000;
+	private QueryResultCache resultCache = null;
+	private Path runFile = Paths.get("output/results.txt");
+	private boolean combinedField = false;
+	private Path queryCacheDir = null;
+	private Metrics metrics = null;
+	private DirectoryFactory directoryFactory = null;
+	private final ConcurrentHashMap<String, Analyzer> timedAnalyzers = new ConcurrentHashMap<String, Analyzer>();
+	
+	/**
+	 * Measure every query, split across parsing, analysis, search and fetching the hit ids
+	 * @param metrics: registry receiving the latencies, or null to not measure
+	 */
+	public void setMetrics(Metrics metrics) {
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Keep the parsed and analyzed queries on disk, so later runs with the same analyzer skip query parsing
+	 * @param queryCacheDir: directory of the query cache, or null to parse the queries on every run
+	 */
+	public void setQueryCacheDir(Path queryCacheDir) {
+		
+		this.queryCacheDir = queryCacheDir;
+	}
+	
+	/**
+	 * @param directoryFactory: storage of the indexes opened by path, null for the default one
+	 */
+	public void setDirectoryFactory(DirectoryFactory directoryFactory) {
+		
+		this.directoryFactory = directoryFactory;
+	}
+	
+	// Long cran style queries skip little, so scoring every match is faster by default
+	private int totalHitsThreshold = EXACT_TOTAL_HITS;
+	
+	/**
+	 * Set how many matches are counted exactly before the search may skip blocks of documents that
+	 * cannot enter the top hits (block-max WAND). The top hits are the same either way, only the
+	 * total hit count becomes a lower bound. Skipping pays off for short queries on large indexes.
+	 * @param totalHitsThreshold: number of matches counted exactly, EXACT_TOTAL_HITS to score every match
+	 */
+	public void setTotalHitsThreshold(int totalHitsThreshold) {
+		
+		if (totalHitsThreshold < 1) throw new IllegalArgumentException("totalHitsThreshold must be at least 1, got " + totalHitsThreshold);
+		this.totalHitsThreshold = totalHitsThreshold;
+	}
+	
+	/**
+	 * Search the "All" field written by IndexOptions.setCombinedField() instead of each text field.
+	 * Every query term then reads one posting list rather than four, and fields are weighted as
+	 * they were at index time.
+	 * @param combinedField: true to search the "All" field
+	 */
+	public void setCombinedField(boolean combinedField) {
+		
+		this.combinedField = combinedField;
+	}
+	
+	/**
+	 * Set where the TREC run file is written
+	 * @param runFile: location of the run file, gzip compressed if it ends with ".gz", or null to not write one
+	 */
+	public void setRunFile(Path runFile) {
+		
+		this.runFile = runFile;
+	}
+	
+	/**
+	 * Reuse the results of identical searches on the same index
+	 * @param resultCache: cache to use, or null to always search
+	 */
+	public void setResultCache(QueryResultCache resultCache) {
+		
+		this.resultCache = resultCache;
+	}
 		
 	/**
 	 * search cran queries in index generated by Indexer.
@@ -51,6 +132,70 @@ public class Searcher {
 	 */
 	public Map<String, List<String>> searchCranQueries(Path indexFile, List<Map<String, String>> cranQueryList, String analyzerString, String similarity, String hpp) throws ParseException {
 		
+		return searchCranQueries(indexFile, cranQueryList, analyzerString, similarity, hpp, 1);
+	}
+	
+	/**
+	 * search cran queries in index generated by Indexer, running several queries at once.
+	 * Results are collected in query order, so the output does not depend on the number of threads.
+	 * @param indexFile: location of the index file
+	 * @param cranQueryList: list of cran queries
+	 * @param analyzerString: lucene analyzer to use
+	 * @param similarity: lucene similarity to use
+	 * @param hpp: hits per page to use
+	 * @param threads: number of queries searched concurrently, 1 searches on the calling thread
+	 * @return ranked list of documents for each queries
+	 * @throws ParseException
+	 */
+	public Map<String, List<String>> searchCranQueries(Path indexFile, List<Map<String, String>> cranQueryList, String analyzerString, String similarity, String hpp, int threads) throws ParseException {
+		
+		Map<String, List<String>> resultDict = null;
+		try {
+			
+			// Get index from disk
+			SearchService searchService = new SearchService(indexFile, directoryFactory != null ? directoryFactory : DirectoryFactory.getDefault());
+			try {
+				resultDict = searchCranQueries(searchService, cranQueryList, analyzerString, similarity, hpp, threads);
+			}
+			finally {
+				searchService.close();
+			}
+		}
+		catch (IOException e) {
+			
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return resultDict;
+	}
+	
+	/**
+	 * search cran queries on an index that is already open, with the analyzer and similarity the index was built with.
+	 * @param searchService: open index to search
+	 * @param cranQueryList: list of cran queries
+	 * @param hpp: hits per page to use
+	 * @param threads: number of queries searched concurrently, 1 searches on the calling thread
+	 * @return ranked list of documents for each queries
+	 * @throws ParseException
+	 */
+	public Map<String, List<String>> searchCranQueries(SearchService searchService, List<Map<String, String>> cranQueryList, String hpp, int threads) throws ParseException {
+		
+		return searchCranQueries(searchService, cranQueryList, null, null, hpp, threads);
+	}
+	
+	/**
+	 * search cran queries on an index that is already open, without reopening it.
+	 * @param searchService: open index to search
+	 * @param cranQueryList: list of cran queries
+	 * @param analyzerString: lucene analyzer to use, or null for the one the index was built with
+	 * @param similarity: lucene similarity to use, or null for the one the index was built with
+	 * @param hpp: hits per page to use
+	 * @param threads: number of queries searched concurrently, 1 searches on the calling thread
+	 * @return ranked list of documents for each queries
+	 * @throws ParseException
+	 */
+	public Map<String, List<String>> searchCranQueries(SearchService searchService, List<Map<String, String>> cranQueryList, String analyzerString, String similarity, String hpp, int threads) throws ParseException {
+		
 		Map<String, List<String>> resultDict = new HashMap<String, List<String>>();
 		try {
 			
@@ -59,65 +204,94 @@ public class Searcher {
 			}
 			catch (NumberFormatException e) {}
 			
-			// Create the same analyzer as the indexer
+			// Create an index searcher over the shared reader, so the similarity stays private to this search
+			IndexSearcher sharedSearcher = searchService.acquire();
+			IndexSearcher isearcher = privateSearcher(sharedSearcher);
 			Analyzer analyzer = null;
-			if (analyzerString.equals("Standard")) analyzer = new StandardAnalyzer(EnglishAnalyzer.getDefaultStopSet());
-			else if (analyzerString.equals("Keyword")) analyzer = new KeywordAnalyzer();
-			else if (analyzerString.equals("WhiteSpace")) analyzer = new WhitespaceAnalyzer();
-			else if (analyzerString.equals("Simple")) analyzer = new SimpleAnalyzer();
-			else if (analyzerString.equals("Stop")) analyzer = new StopAnalyzer();
-			else {
+			PreparedQueries preparedQueries = null;
+			try {
+				
+				// Without an explicit choice, use the analyzer and similarity recorded by the indexer
+				Map<String, String> userData = commitUserData(isearcher);
+				if (analyzerString == null) analyzerString = userData.get("analyzer");
+				else if (userData.containsKey("analyzer") && !analyzerString.equals(userData.get("analyzer")))
+					System.out.println("Warning: index was built with the " + userData.get("analyzer") + " analyzer, searching with " + analyzerString + ".");
+				if (similarity == null) similarity = userData.get("similarity");
+				
+				// Use the same shared analyzer as the indexer
+				AnalysisRegistry registry = AnalysisRegistry.getDefault();
+				analyzerString = registry.analyzerName(analyzerString);
+				similarity = registry.similarityName(similarity);
+				analyzer = registry.getAnalyzer(analyzerString);
+				isearcher.setSimilarity(registry.getSimilarity(similarity));
+				
+				if (combinedField && FieldInfos.getMergedFieldInfos(isearcher.getIndexReader()).fieldInfo("All") == null)
+					throw new IOException("Index has no All field, build it with IndexOptions.setCombinedField(true)");
+				
+				// Parse and analyze the queries once, or read them from the query cache
+				if (queryCacheDir != null) {
+					
+					long start = System.nanoTime();
+					preparedQueries = PreparedQueries.load(queryCacheDir, cranQueryList, analyzerString, analyzer, queryFields(), newQueryParser(analyzer));
+					if (metrics != null) metrics.record("search.prepare", System.nanoTime() - start);
+					System.out.println(preparedQueries.isFromCache() ? "Queries read from the query cache." : "Queries parsed and written to the query cache.");
+				}
+			}
+			catch (IOException e) {
+				
+				searchService.release(sharedSearcher);
+				throw e;
+			}
+			catch (ParseException e) {
 				
-				analyzer = new EnglishAnalyzer();
-				analyzerString = "English";
+				searchService.release(sharedSearcher);
+				throw e;
 			}
 			
-			// Get index from disk
-			Directory directory = FSDirectory.open(indexFile);
-			DirectoryReader ireader = DirectoryReader.open(directory);
-			
-			// Create an index searcher
-			IndexSearcher isearcher = new IndexSearcher(ireader);
-			if (similarity.equals("TFIDF")) isearcher.setSimilarity(new ClassicSimilarity());
-			else if (similarity.equals("BM25")) isearcher.setSimilarity(new BM25Similarity());
-		//	else if (similarity.equals("LMDirichlet")) isearcher.setSimilarity(new LMDirichletSimilarity());
-
-						
-			List<String> resFileContent = new ArrayList<String>();
-			System.out.println("Searching index using " + analyzerString + " analyzer and " + similarity + " similarity, with " + Integer.toString(HITS_PER_PAGE) + " hits per page.");
+			if (isearcher instanceof ShardedIndexSearcher) System.out.println("Searching " + ((ShardedIndexSearcher) isearcher).getShardCount() + " shards concurrently and merging their hits.");
+			System.out.println("Searching index using " + analyzerString + " analyzer and " + similarity + " similarity, with " + Integer.toString(HITS_PER_PAGE) + " hits per page"
+					+ (totalHitsThreshold == EXACT_TOTAL_HITS ? " and exact hit counts." : " and hit counts exact up to " + totalHitsThreshold + "."));
 			System.out.println("Please wait for some seconds :) ....in progress .........");
-			// Loop through all queries and retrieve documents
-			for (int i = 0; i < cranQueryList.size(); i++) {
+			
+			// Time the analysis of queries apart from their parsing
+			Analyzer queryAnalyzer = metrics != null ? new TimedAnalyzer(analyzer) : analyzer;
+			
+			// Results are streamed to the run file as soon as each query is done
+			RunFileWriter runFileWriter = null;
+			if (runFile != null) {
 				
-				Map<String, String> cranQuery = cranQueryList.get(i);
-				MultiFieldQueryParser queryParser = new MultiFieldQueryParser(
-						new String[] {"Title", "Locations", "Authors", "Abstract"},
-						analyzer);
-				Query query = queryParser.parse(cranQuery.get("Query"));
+				// Create directory if it does not exist
+				File outputDir = runFile.toAbsolutePath().getParent().toFile();
+				if (!outputDir.exists()) outputDir.mkdirs();
+				runFileWriter = new RunFileWriter(runFile, "STANDARD");
+			}
+			
+			long start = System.nanoTime();
+			try {
 				
-				// Search
-				TopDocs topDocs = isearcher.search(query, HITS_PER_PAGE);
-				ScoreDoc[] hits = topDocs.scoreDocs;
+				if (threads <= 1) {
+					
+					// One parser is enough when queries run one after another
+					QueryParser queryParser = newQueryParser(queryAnalyzer);
+					for (int i = 0; i < cranQueryList.size(); i++) {
+						
+						SearchResult result = runQuery(isearcher, preparedQueries, i, queryParser, cranQueryList.get(i).get("Query"), analyzerString, similarity, HITS_PER_PAGE);
+						collectResult(i, cranQueryList.get(i), result, resultDict, runFileWriter);
+					}
+				}
+				else searchInParallel(isearcher, queryAnalyzer, cranQueryList, preparedQueries, analyzerString, similarity, threads, resultDict, runFileWriter);
+			}
+			finally {
 				
-				// Display results
-				List<String> resultList = new ArrayList<String>();
-//		        System.out.println("Found " + hits.length + " hits.");
-		        for(int j = 0; j < hits.length; j++) {
-		            
-		        	int docId = hits[j].doc;
-		            Document doc = isearcher.doc(docId);
-		            resultList.add(doc.get("ID"));
-		            resFileContent.add(cranQuery.get("QueryNo") + " 0 " + doc.get("ID") + " 0 " + hits[j].score + " STANDARD\n");
-		        }
-		        resultDict.put(Integer.toString(i + 1), resultList);
+				searchService.release(sharedSearcher);
+				if (runFileWriter != null) runFileWriter.close();
 			}
-			
-			// Create directory if it does not exist
-			File outputDir = new File("output");
-			if (!outputDir.exists()) outputDir.mkdir();
-			
-			Files.write(Paths.get("output/results.txt"), resFileContent, Charset.forName("UTF-8"));
-			System.out.println("Results written to output/results.txt to be used in TREC Eval.");
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println("Searched " + cranQueryList.size() + " queries in " + String.format("%.3f", seconds) + " s ("
+					+ String.format("%.1f", cranQueryList.size() / seconds) + " queries/sec) using " + Math.max(threads, 1) + " thread(s).");
+			if (resultCache != null) System.out.println("Result cache: " + resultCache);
+			if (metrics != null) metrics.setGauge("search.queriesPerSec", cranQueryList.size() / seconds);
+			if (runFile != null) System.out.println("Results written to " + runFile + " to be used in TREC Eval.");
 		}
 		catch (IOException e) {
 			
@@ -127,6 +301,300 @@ public class Searcher {
 		return resultDict;
 	}
 	
+	/**
+	 * search a single query on an index that is already open. Every setting belongs to the call, so one
+	 * Searcher can serve concurrent callers such as SearchServer.
+	 * @param searchService: open index to search
+	 * @param queryString: query in the syntax of the lucene query parser
+	 * @param hitsPerPage: number of hits to return
+	 * @param fields: fields the query is searched in, or null for the fields searched by searchCranQueries
+	 * @param similarity: lucene similarity to use, or null for the one the index was built with
+	 * @return ids and scores of the top documents
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	SearchResult search(SearchService searchService, String queryString, int hitsPerPage, String[] fields, String similarity) throws IOException, ParseException {
+		
+		IndexSearcher sharedSearcher = searchService.acquire();
+		try {
+			
+			IndexSearcher isearcher = privateSearcher(sharedSearcher);
+			Map<String, String> userData = commitUserData(isearcher);
+			AnalysisRegistry registry = AnalysisRegistry.getDefault();
+			String analyzerString = registry.analyzerName(userData.get("analyzer"));
+			similarity = registry.similarityName(similarity != null ? similarity : userData.get("similarity"));
+			isearcher.setSimilarity(registry.getSimilarity(similarity));
+			
+			Analyzer analyzer = registry.getAnalyzer(analyzerString);
+			if (metrics != null) analyzer = timedAnalyzer(analyzerString, analyzer);
+			if (fields == null) fields = queryFields();
+			QueryParser queryParser = fields.length == 1 ? new QueryParser(fields[0], analyzer) : new MultiFieldQueryParser(fields, analyzer);
+			return runQuery(isearcher, null, 0, queryParser, queryString, analyzerString, similarity, hitsPerPage);
+		}
+		finally {
+			searchService.release(sharedSearcher);
+		}
+	}
+	
+	/**
+	 * @return the timed wrapper of a shared analyzer, kept so its token streams are reused between calls
+	 */
+	private Analyzer timedAnalyzer(String analyzerString, Analyzer analyzer) {
+		
+		Analyzer timedAnalyzer = timedAnalyzers.get(analyzerString);
+		if (timedAnalyzer == null) {
+			
+			timedAnalyzer = new TimedAnalyzer(analyzer);
+			Analyzer previous = timedAnalyzers.putIfAbsent(analyzerString, timedAnalyzer);
+			if (previous != null) timedAnalyzer = previous;
+		}
+		return timedAnalyzer;
+	}
+	
+	/**
+	 * Search the queries on a fixed thread pool, giving each thread its own query parser.
+	 * Results are collected in query order while later queries are still being searched.
+	 */
+	private void searchInParallel(final IndexSearcher isearcher, final Analyzer analyzer, List<Map<String, String>> cranQueryList, final PreparedQueries preparedQueries, final String analyzerString, final String similarity, int threads,
+			Map<String, List<String>> resultDict, RunFileWriter runFileWriter) throws IOException, ParseException {
+		
+		// Query parsers are not thread safe
+		final ThreadLocal<QueryParser> queryParsers = new ThreadLocal<QueryParser>() {
+			
+			@Override
+			protected QueryParser initialValue() {
+				return newQueryParser(analyzer);
+			}
+		};
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			
+			List<Future<SearchResult>> futures = new ArrayList<Future<SearchResult>>(cranQueryList.size());
+			for (int i = 0; i < cranQueryList.size(); i++) {
+				
+				final int queryIndex = i;
+				final String queryString = cranQueryList.get(i).get("Query");
+				futures.add(executor.submit(new Callable<SearchResult>() {
+					
+					@Override
+					public SearchResult call() throws IOException, ParseException {
+						return runQuery(isearcher, preparedQueries, queryIndex, queryParsers.get(), queryString, analyzerString, similarity, HITS_PER_PAGE);
+					}
+				}));
+			}
+			
+			for (int i = 0; i < futures.size(); i++) collectResult(i, cranQueryList.get(i), futures.get(i).get(), resultDict, runFileWriter);
+		}
+		catch (InterruptedException e) {
+			
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching", e);
+		}
+		catch (ExecutionException e) {
+			
+			if (e.getCause() instanceof ParseException) throw (ParseException) e.getCause();
+			throw new IOException("Search thread failed", e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Add the result of the i-th query to the ranked lists and the run file
+	 */
+	private void collectResult(int i, Map<String, String> cranQuery, SearchResult result, Map<String, List<String>> resultDict, RunFileWriter runFileWriter) throws IOException {
+		
+		// The ids may be shared with the result cache, so the list must not be modified
+		resultDict.put(Integer.toString(i + 1), Collections.unmodifiableList(Arrays.asList(result.ids)));
+		if (runFileWriter != null) runFileWriter.writeQuery(cranQuery.get("QueryNo"), result.ids, result.scores);
+	}
+	
+	/**
+	 * @return the user data of the commit the searcher was opened on, or of the commit of its first shard, empty if it has none
+	 */
+	static Map<String, String> commitUserData(IndexSearcher isearcher) throws IOException {
+		
+		IndexReader reader = isearcher instanceof ShardedIndexSearcher ? ((ShardedIndexSearcher) isearcher).getShardSearcher(0).getIndexReader() : isearcher.getIndexReader();
+		if (reader instanceof DirectoryReader) return ((DirectoryReader) reader).getIndexCommit().getUserData();
+		return Collections.emptyMap();
+	}
+	
+	/**
+	 * @return an index searcher over the reader or shards of a shared searcher, so its similarity can be set
+	 *         without affecting other searches
+	 */
+	static IndexSearcher privateSearcher(IndexSearcher sharedSearcher) {
+		
+		if (sharedSearcher instanceof ShardedIndexSearcher) return new ShardedIndexSearcher((ShardedIndexSearcher) sharedSearcher);
+		return new IndexSearcher(sharedSearcher.getIndexReader());
+	}
+	
+	private String[] queryFields() {
+		return queryFields(combinedField);
+	}
+	
+	/**
+	 * @param combinedField: search the "All" field rather than the cran fields, see setCombinedField()
+	 * @return the fields cran queries are searched in
+	 */
+	static String[] queryFields(boolean combinedField) {
+		
+		if (combinedField) return new String[] {"All"};
+		return new String[] {"Title", "Locations", "Authors", "Abstract"};
+	}
+	
+	private QueryParser newQueryParser(Analyzer analyzer) {
+		return newQueryParser(analyzer, combinedField);
+	}
+	
+	/**
+	 * @return a parser of cran queries over the fields of queryFields()
+	 */
+	static QueryParser newQueryParser(Analyzer analyzer, boolean combinedField) {
+		
+		if (combinedField) return new QueryParser("All", analyzer);
+		return new MultiFieldQueryParser(queryFields(false), analyzer);
+	}
+	
+	/**
+	 * @return the prepared i-th query, or the query parsed from its text if it was not prepared
+	 */
+	private Query prepareQuery(PreparedQueries preparedQueries, int i, QueryParser queryParser, String queryString) throws ParseException {
+		
+		if (preparedQueries != null && preparedQueries.get(i) != null) return preparedQueries.get(i);
+		if (metrics == null) return queryParser.parse(queryString);
+		
+		TimedAnalyzer.takeNanos();
+		long start = System.nanoTime();
+		Query query = queryParser.parse(queryString);
+		long parseNanos = System.nanoTime() - start;
+		long analyzeNanos = TimedAnalyzer.takeNanos();
+		metrics.record("search.parse", parseNanos - analyzeNanos);
+		metrics.record("search.analyze", analyzeNanos);
+		return query;
+	}
+	
+	/**
+	 * Prepare and run the i-th query
+	 * @return ids and scores of the top documents
+	 */
+	private SearchResult runQuery(IndexSearcher isearcher, PreparedQueries preparedQueries, int i, QueryParser queryParser, String queryString, String analyzerString,
+			String similarity, int hitsPerPage) throws IOException, ParseException {
+		
+		long start = metrics != null ? System.nanoTime() : 0;
+		SearchResult result = searchQuery(isearcher, prepareQuery(preparedQueries, i, queryParser, queryString), analyzerString, similarity, hitsPerPage);
+		if (metrics != null) {
+			
+			metrics.record("search.query", System.nanoTime() - start);
+			metrics.counter("search.queries").incrementAndGet();
+		}
+		return result;
+	}
+	
+	/**
+	 * Run a single query
+	 * @return ids and scores of the top documents
+	 */
+	private SearchResult searchQuery(IndexSearcher isearcher, Query query, String analyzerString, String similarity, int hitsPerPage) throws IOException {
+		
+		// The parsed query holds the analyzed terms, so equivalent query strings share an entry
+		IndexReader.CacheHelper cacheHelper = isearcher.getIndexReader().getReaderCacheHelper();
+		String analyzedQuery = null;
+		if (resultCache != null && cacheHelper != null) {
+			
+			analyzedQuery = query.toString();
+			SearchResult cached = resultCache.get(cacheHelper, analyzerString, similarity, analyzedQuery, hitsPerPage);
+			if (cached != null) {
+				
+				if (metrics != null) metrics.counter("search.cacheHits").incrementAndGet();
+				return cached;
+			}
+		}
+		
+		// Search, skipping non competitive documents once the threshold is reached
+		long start = metrics != null ? System.nanoTime() : 0;
+		ScoreDoc[] hits = topDocs(isearcher, query, hitsPerPage, totalHitsThreshold).scoreDocs;
+		long searched = metrics != null ? System.nanoTime() : 0;
+		
+		SearchResult result = new SearchResult(hits.length);
+		for (int j = 0; j < hits.length; j++) result.scores[j] = hits[j].score;
+		resolveIds(isearcher, hits, result.ids);
+		if (metrics != null) {
+			
+			metrics.record("search.search", searched - start);
+			metrics.record("search.fetch", System.nanoTime() - searched);
+		}
+		
+		if (analyzedQuery != null) resultCache.put(cacheHelper, analyzerString, similarity, analyzedQuery, hitsPerPage, result);
+		return result;
+	}
+	
+	/**
+	 * Collect the top hits of a query, searching every shard of a sharded index
+	 * @param totalHitsThreshold: number of hits counted exactly, non competitive documents are skipped after it
+	 */
+	static TopDocs topDocs(IndexSearcher isearcher, Query query, int n, int totalHitsThreshold) throws IOException {
+		
+		if (isearcher instanceof ShardedIndexSearcher) return ((ShardedIndexSearcher) isearcher).searchShards(query, n, totalHitsThreshold);
+		TopScoreDocCollector collector = TopScoreDocCollector.create(n, totalHitsThreshold);
+		isearcher.search(query, collector);
+		return collector.topDocs();
+	}
+	
+	/**
+	 * Look up the ID of every hit through the ID doc values, visiting hits in doc id order since
+	 * doc values only move forward. Falls back to the stored ID for indexes without doc values.
+	 * @param hits: top documents of a query
+	 * @param ids: array receiving the ID of each hit, in hit order
+	 */
+	static void resolveIds(IndexSearcher isearcher, ScoreDoc[] hits, String[] ids) throws IOException {
+		
+		// Pack doc id and hit position into one long so sorting needs no boxing
+		long[] order = new long[hits.length];
+		for (int j = 0; j < hits.length; j++) order[j] = ((long) hits[j].doc << 32) | j;
+		Arrays.sort(order);
+		
+		List<LeafReaderContext> leaves = isearcher.getIndexReader().leaves();
+		int leafIndex = -1;
+		LeafReaderContext leaf = null;
+		SortedDocValues idValues = null;
+		for (int j = 0; j < order.length; j++) {
+			
+			int docId = (int) (order[j] >>> 32);
+			int position = (int) order[j];
+			while (leaf == null || docId >= leaf.docBase + leaf.reader().maxDoc()) {
+				
+				leaf = leaves.get(++leafIndex);
+				idValues = leaf.reader().getSortedDocValues("ID");
+			}
+			
+			if (idValues != null && idValues.advanceExact(docId - leaf.docBase))
+				ids[position] = idValues.lookupOrd(idValues.ordValue()).utf8ToString();
+			else {
+				
+				Document doc = isearcher.doc(docId);
+				ids[position] = doc.get("ID");
+			}
+		}
+	}
+	
+	/**
+	 * Ranked document ids and scores of a single query.
+	 */
+	static class SearchResult {
+		
+		final String[] ids;
+		final float[] scores;
+		
+		SearchResult(int size) {
+			
+			ids = new String[size];
+			scores = new float[size];
+		}
+	}
+	
 	/**
 	 * Main method
 	 * @param args: Command line arguments
@@ -135,8 +603,6 @@ public class Searcher {
 
 	public static void main(String[] args) throws ParseException {
 
-		String analyzer = "English";
-		String similarity = "BM25";
 		String hpp = "1000";
 		String dataDir="data/cran";
 		System.out.println("Parsing CRAN Queries...");
@@ -146,8 +612,25 @@ public class Searcher {
 		
 		System.out.println("Searching data...");
 		Searcher searcher = new Searcher();
-		searcher.searchCranQueries(Paths.get("index/cran.index"), cranQueryList, analyzer, similarity, hpp);
+		searcher.setQueryCacheDir(Paths.get("cache"));
+		Metrics metrics = new Metrics();
+		metrics.registerMBean("search");
+		searcher.setMetrics(metrics);
+		try {
+			
+			// Open the index once and keep it for every batch, searching it as it was built
+			SearchService searchService = new SearchService(Paths.get("index/cran.index"));
+			searcher.searchCranQueries(searchService, cranQueryList, hpp, Runtime.getRuntime().availableProcessors());
+			searchService.close();
+			metrics.writeJson(Paths.get("output/search-metrics.json"));
+		}
+		catch (IOException e) {
+			
+			e.printStackTrace();
+			System.exit(1);
+		}
 		System.out.println("Searching done!");
+		System.out.println("Metrics written to output/search-metrics.json");
 	}
 
 
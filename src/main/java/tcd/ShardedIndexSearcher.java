@@ -0,0 +1,206 @@
+package tcd;
+
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Searcher over the shards of an index written with IndexOptions.setShards(). A query is searched on
+ * every shard concurrently and the top hits of the shards are merged with TopDocs.merge().
+ *
+ * Each shard scores with the term and collection statistics of the whole index rather than its own,
+ * so a document gets the same score as in a single index and the merged ranking matches it. This
+ * searcher reads all shards through a MultiReader: it provides those global statistics, and the doc
+ * ids of the merged hits are the doc ids of that reader. Hits of equal score are ordered by their
+ * position in the corpus, recorded by the Indexer, as a single index orders them by doc id.
+ *
+ */
+class ShardedIndexSearcher extends IndexSearcher {
+
+	private static final Sort CORPUS_ORDER = new Sort(SortField.FIELD_SCORE, new SortField("Position", SortField.Type.LONG));
+
+	private final IndexSearcher[] shardSearchers;
+	private final int[] docBases;
+	private final boolean hasPositions;
+	private final ExecutorService executor;
+
+	/**
+	 * @param reader: reader over every shard, in shard order
+	 * @param shardSearchers: searcher of each shard
+	 * @param executor: threads searching the shards, the calling thread searches the first shard itself
+	 */
+	ShardedIndexSearcher(MultiReader reader, IndexSearcher[] shardSearchers, ExecutorService executor) {
+
+		this(reader, shardSearchers, FieldInfos.getMergedFieldInfos(reader).fieldInfo("Position") != null, executor);
+	}
+
+	/**
+	 * Search the same shards with a similarity of its own
+	 */
+	ShardedIndexSearcher(ShardedIndexSearcher searcher) {
+
+		this((MultiReader) searcher.getIndexReader(), searcher.shardSearchers, searcher.hasPositions, searcher.executor);
+	}
+
+	private ShardedIndexSearcher(MultiReader reader, IndexSearcher[] shardSearchers, boolean hasPositions, ExecutorService executor) {
+
+		super(reader);
+		this.shardSearchers = shardSearchers;
+		this.hasPositions = hasPositions;
+		this.executor = executor;
+		this.docBases = new int[shardSearchers.length];
+		for (int i = 0; i < shardSearchers.length; i++) docBases[i] = reader.getContext().children().get(i).docBaseInParent;
+	}
+
+	int getShardCount() {
+		return shardSearchers.length;
+	}
+
+	IndexSearcher getShardSearcher(int shard) {
+		return shardSearchers[shard];
+	}
+
+	/**
+	 * Search the top hits of every shard and merge them
+	 * @param n: number of hits to return
+	 * @param totalHitsThreshold: hits each shard counts exactly before skipping non competitive documents
+	 * @return the top hits, with doc ids of the reader over every shard
+	 */
+	TopDocs searchShards(Query query, final int n, final int totalHitsThreshold) throws IOException {
+
+		final Query rewritten = rewrite(query);
+
+		// Look up the global statistics of the query terms once, rather than once per shard
+		Set<Term> terms = new HashSet<Term>();
+		rewritten.visit(QueryVisitor.termCollector(terms));
+		final Map<Term, TermStatistics> termStatistics = new HashMap<Term, TermStatistics>();
+		for (Term term : terms) {
+
+			TermStatistics statistics = globalTermStatistics(term);
+			if (statistics != null) termStatistics.put(term, statistics);
+		}
+
+		List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(shardSearchers.length - 1);
+		for (int i = 1; i < shardSearchers.length; i++) {
+
+			final int shard = i;
+			futures.add(executor.submit(new Callable<TopDocs>() {
+
+				@Override
+				public TopDocs call() throws IOException {
+					return searchShard(shard, rewritten, termStatistics, n, totalHitsThreshold);
+				}
+			}));
+		}
+
+		TopDocs[] shardHits = new TopDocs[shardSearchers.length];
+		try {
+			shardHits[0] = searchShard(0, rewritten, termStatistics, n, totalHitsThreshold);
+			for (int i = 1; i < shardSearchers.length; i++) shardHits[i] = futures.get(i - 1).get();
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching the shards", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Shard search failed", e.getCause());
+		}
+		finally {
+			for (Future<TopDocs> future : futures) future.cancel(true);
+		}
+
+		TopDocs topDocs;
+		if (hasPositions) {
+
+			TopFieldDocs[] shardFieldHits = new TopFieldDocs[shardHits.length];
+			for (int i = 0; i < shardHits.length; i++) shardFieldHits[i] = (TopFieldDocs) shardHits[i];
+			topDocs = TopDocs.merge(CORPUS_ORDER, n, shardFieldHits);
+		}
+		else topDocs = TopDocs.merge(n, shardHits);
+		for (ScoreDoc hit : topDocs.scoreDocs) hit.doc += docBases[hit.shardIndex];
+		return topDocs;
+	}
+
+	private TopDocs searchShard(int shard, Query query, Map<Term, TermStatistics> termStatistics, int n, int totalHitsThreshold) throws IOException {
+
+		IndexSearcher shardSearcher = new ShardSearcher(shardSearchers[shard].getIndexReader(), termStatistics);
+		shardSearcher.setSimilarity(getSimilarity());
+		if (hasPositions) {
+
+			TopFieldCollector collector = TopFieldCollector.create(CORPUS_ORDER, n, totalHitsThreshold);
+			shardSearcher.search(query, collector);
+			TopFieldDocs topDocs = collector.topDocs();
+			// The score is the first sort value
+			for (ScoreDoc hit : topDocs.scoreDocs) hit.score = (Float) ((FieldDoc) hit).fields[0];
+			return topDocs;
+		}
+		TopScoreDocCollector collector = TopScoreDocCollector.create(n, totalHitsThreshold);
+		shardSearcher.search(query, collector);
+		return collector.topDocs();
+	}
+
+	/**
+	 * @return statistics of a term over every shard, or null if no shard has it
+	 */
+	private TermStatistics globalTermStatistics(Term term) throws IOException {
+
+		TermStates termStates = TermStates.build(getTopReaderContext(), term, true);
+		if (termStates.docFreq() == 0) return null;
+		return new TermStatistics(term.bytes(), termStates.docFreq(), termStates.totalTermFreq());
+	}
+
+	/**
+	 * Searcher of one shard that scores with the statistics of the whole index.
+	 */
+	private class ShardSearcher extends IndexSearcher {
+
+		private final Map<Term, TermStatistics> termStatistics;
+
+		ShardSearcher(IndexReader reader, Map<Term, TermStatistics> termStatistics) {
+
+			super(reader);
+			this.termStatistics = termStatistics;
+		}
+
+		@Override
+		public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) throws IOException {
+
+			// Terms of queries that only rewrite on the shard are looked up when they are met
+			TermStatistics statistics = termStatistics.get(term);
+			return statistics != null ? statistics : globalTermStatistics(term);
+		}
+
+		@Override
+		public CollectionStatistics collectionStatistics(String field) throws IOException {
+			return ShardedIndexSearcher.this.collectionStatistics(field);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package tcd;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+import java.io.IOException;
+
+/**
+ * Wraps an analyzer to measure the time its token streams take, so analysis can be told apart from
+ * query parsing and indexing. The time spent by the calling thread adds up until takeNanos() is called.
+ *
+ */
+class TimedAnalyzer extends AnalyzerWrapper {
+
+	private static final ThreadLocal<long[]> ANALYZE_NANOS = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	private final Analyzer delegate;
+
+	TimedAnalyzer(Analyzer delegate) {
+
+		super(delegate.getReuseStrategy());
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return nanoseconds the calling thread spent analyzing since the previous call
+	 */
+	static long takeNanos() {
+
+		long[] nanos = ANALYZE_NANOS.get();
+		long taken = nanos[0];
+		nanos[0] = 0;
+		return taken;
+	}
+
+	@Override
+	protected Analyzer getWrappedAnalyzer(String fieldName) {
+		return delegate;
+	}
+
+	@Override
+	protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+		return new TokenStreamComponents(components.getSource(), new TimingFilter(components.getTokenStream()));
+	}
+
+	private static final class TimingFilter extends TokenFilter {
+
+		private final long[] nanos = ANALYZE_NANOS.get();
+
+		TimingFilter(TokenStream input) {
+			super(input);
+		}
+
+		@Override
+		public boolean incrementToken() throws IOException {
+
+			long start = System.nanoTime();
+			try {
+				return input.incrementToken();
+			}
+			finally {
+				nanos[0] += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public void reset() throws IOException {
+
+			long start = System.nanoTime();
+			try {
+				super.reset();
+			}
+			finally {
+				nanos[0] += System.nanoTime() - start;
+			}
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package tcd;
 import org.apache.lucene.queryparser.classic.ParseException;
 
-import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
@@ -20,11 +20,20 @@ public class lucenetest {
             for(int i=0;i< analyzerall.length;i++){
                 System.out.println("number:"+(i+1)+" is "+analyzerall[i]+" analyzer");
             }
+            System.out.println("number:7 runs every analyzer with every scoring approach");
             int number1=sc.nextInt();
-            while (number1>6||number1<1){
-                System.out.println("Please input the 1~6 number !!!!!!!!");
+            while (number1>7||number1<1){
+                System.out.println("Please input the 1~7 number !!!!!!!!");
                 number1=sc.nextInt();
             }
+            if (number1==7){
+                // parse once, build one index per analyzer and search each of them with both similarities
+                Experiment experiment = new Experiment();
+                experiment.printGrid(experiment.runGrid("data/cran", Paths.get("index/grid"), analyzerall, similarityall, "1000",
+                        new IndexOptions()));
+                System.out.println("--------------------------done---------------------------");
+                continue;
+            }
             System.out.println("Good! You choose the "+analyzerall[number1-1]+" analyzer");
             System.out.println("Please input a number for choosing a scoring approach:\n" +
                     "1 is TFIDF and 2 is BM25");
@@ -39,16 +48,13 @@ public class lucenetest {
             String hpp="1000";
             System.out.println("----------------------------create index---------------------");
             System.out.println("analyzer :"+ analyzer+" similarity : "+similarity);
-            System.out.println("Parsing CRAN data...");
             FileIO fileIO = new FileIO();
-            List<Map<String, String>> cranList = fileIO.parseCran(dataDir);
-            System.out.println("Parsing done!\n");
-            System.out.println("Deleting previous index files, if they exist...");
-            fileIO.deleteDir(new File("index"));
-            System.out.println("Done!\n");
-            System.out.println("Indexing data...");
+            // later iterations map the snapshots instead of parsing the text files again
+            fileIO.setSnapshotDir(Paths.get("cache"));
+            System.out.println("Parsing and indexing CRAN data...");
             Indexer indexer = new Indexer();
-            indexer.createCranIndex(Paths.get("index/cran.index"), cranList, analyzer, similarity);
+            indexer.createCranIndex(Paths.get("index/cran.index"), fileIO.parseCran(dataDir).iterator(), analyzer, similarity,
+                    new IndexOptions().setThreads(Runtime.getRuntime().availableProcessors()).setIncremental(true));
             System.out.println("Indexing done, and saved on "+Paths.get("index/cran.index")+" !");
             /*----------------------------Searcher--------------------*/
             System.out.println("----------------------------Searcher--------------------");
@@ -57,24 +63,33 @@ public class lucenetest {
             System.out.println("Parsing done!\n");
             System.out.println("Searching data...");
             Searcher searcher = new Searcher();
-            searcher.searchCranQueries(Paths.get("index/cran.index"), cranQueryList, analyzer, similarity, hpp);
-            System.out.println("Searching done!");
+            Map<String, List<String>> resultDict = null;
+            try {
+                // Open the freshly built index once and reuse it for the evaluation below
+                SearchService searchService = new SearchService(Paths.get("index/cran.index"));
+                resultDict = searcher.searchCranQueries(searchService, cranQueryList, analyzer, similarity, hpp,
+                        Runtime.getRuntime().availableProcessors());
+                searchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("Searching done!\n");
             /*----------------------------Evaluator--------------------*/
             System.out.println("----------------------------Evaluator--------------------");
-            System.out.println("Parsing CRAN Queries...");
-            System.out.println("Parsing done!\n");
-            System.out.println("Searching data...");
-            Map<String, List<String>> resultDict = searcher.searchCranQueries(Paths.get("index/cran.index"), cranQueryList, analyzer, similarity, hpp);
-            System.out.println("Searching done!\n");
             System.out.println("Parsing CRAN Relevancy Judgements...");
-            Map<String, List<List<String>>> cranRelDict = fileIO.parseCranRel("data/cran");
+            Qrels qrels = fileIO.parseCranQrels("data/cran");
             System.out.println("Parsing Done!\n");
             System.out.println("Evaluating Search Engine...");
             Evaluator evaluator = new Evaluator();
-            Map<String, Double> metrics = evaluator.calculateMetrics(resultDict, cranRelDict);
+            Map<String, Double> metrics = evaluator.calculateMetrics(resultDict, qrels);
             System.out.println("analyzer :"+ analyzer+" similarity : "+similarity);
             System.out.println("Mean Average Precision: " + metrics.get("MAP"));
             System.out.println("Mean Recall: " + metrics.get("Mean Recall"));
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                if (metric.getKey().equals("MAP") || metric.getKey().equals("Mean Recall")) continue;
+                System.out.println(metric.getKey() + ": " + metric.getValue());
+            }
             System.out.println("Evaluation done!");
             System.out.println("--------------------------done---------------------------");
         }
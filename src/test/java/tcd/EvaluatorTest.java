@@ -0,0 +1,186 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Metrics of a small run checked against values computed by hand with the TREC Eval definitions.
+ * The means of all queries were also checked against a separate implementation of the trec_eval
+ * measures map, recall, P, Rprec, recip_rank, bpref and ndcg.
+ *
+ *    query 1   judged 10 (grade 1), 20 (2), 30 (3) relevant, 40 and 50 (4) non-relevant
+ *              ranked 20, 99, 40, 10, 50, 77 where 99 and 77 are not judged
+ *    query 2   judged 5 (-1) relevant, 6 (4) non-relevant, ranked 7, 6, 5
+ *    query 3   judged 8 (4) only, so it has no relevant document
+ *    query 4   judged 1 (1) but not searched
+ *    query 5   searched but not judged
+ *    query 6   judged 1 (1), ranked 2, 3 which are not judged
+ *    query 7   judged 1 (2) and no non-relevant document, ranked 9, 1
+ */
+public class EvaluatorTest {
+
+	private static final double DELTA = 1e-9;
+
+	private static Qrels qrels() {
+
+		Qrels qrels = new Qrels();
+		qrels.setJudgements(1, new int[] {40, 10, 50, 30, 20}, new int[] {4, 1, 4, 3, 2});
+		qrels.setJudgements(2, new int[] {5, 6}, new int[] {-1, 4});
+		qrels.setJudgements(3, new int[] {8}, new int[] {4});
+		qrels.setJudgements(4, new int[] {1}, new int[] {1});
+		qrels.setJudgements(6, new int[] {1}, new int[] {1});
+		qrels.setJudgements(7, new int[] {1}, new int[] {2});
+		return qrels;
+	}
+
+	/**
+	 * @return the run of the fixture restricted to some queries
+	 */
+	private static int[][] run(int... queries) {
+
+		int[][] rankings = new int[8][];
+		rankings[1] = new int[] {20, 99, 40, 10, 50, 77};
+		rankings[2] = new int[] {7, 6, 5};
+		rankings[3] = new int[] {8};
+		rankings[5] = new int[] {1, 2};
+		rankings[6] = new int[] {2, 3};
+		rankings[7] = new int[] {9, 1};
+
+		int[][] run = new int[rankings.length][];
+		for (int query : queries) run[query] = rankings[query];
+		return run;
+	}
+
+	private static Map<String, Double> evaluate(int... queries) {
+
+		return new Evaluator().calculateMetrics(run(queries), qrels(), 1);
+	}
+
+	@Test
+	public void averagePrecision() {
+
+		// Relevant documents at ranks 1 and 4, the third relevant document is not retrieved
+		assertEquals((1.0 / 1 + 2.0 / 4) / 3, evaluate(1).get("MAP"), DELTA);
+		// Unjudged documents count as non-relevant ranks
+		assertEquals(1.0 / 3, evaluate(2).get("MAP"), DELTA);
+		assertEquals(0.0, evaluate(6).get("MAP"), DELTA);
+		assertEquals(1.0 / 2, evaluate(7).get("MAP"), DELTA);
+	}
+
+	@Test
+	public void recall() {
+
+		assertEquals(2.0 / 3, evaluate(1).get("Mean Recall"), DELTA);
+		assertEquals(1.0, evaluate(2).get("Mean Recall"), DELTA);
+		assertEquals(0.0, evaluate(6).get("Mean Recall"), DELTA);
+	}
+
+	@Test
+	public void meanOverJudgedQueries() {
+
+		Map<String, Double> metrics = evaluate(1, 2, 6, 7);
+		// A query retrieving no relevant document still counts in the mean
+		assertEquals((0.5 + 1.0 / 3 + 0.0 + 0.5) / 4, metrics.get("MAP"), DELTA);
+		assertEquals((2.0 / 3 + 1.0 + 0.0 + 1.0) / 4, metrics.get("Mean Recall"), DELTA);
+	}
+
+	@Test
+	public void skipsQueriesWithoutRelevantJudgements() {
+
+		// Query 3 has no relevant document, query 5 no judgements, and query 4 was not searched
+		assertEquals(evaluate(1, 2, 6, 7), evaluate(1, 2, 3, 5, 6, 7));
+		assertEquals(0.0, evaluate(3, 5).get("MAP"), DELTA);
+		assertEquals(0.0, evaluate(3, 5).get("Mean Recall"), DELTA);
+	}
+
+	@Test
+	public void precisionAtCutoffs() {
+
+		Map<String, Double> metrics = evaluate(1);
+		assertEquals(2.0 / 5, metrics.get("P@5"), DELTA);
+		assertEquals(2.0 / 10, metrics.get("P@10"), DELTA);
+		assertEquals(2.0 / 20, metrics.get("P@20"), DELTA);
+		assertEquals((0.4 + 0.2 + 0.0 + 0.2) / 4, evaluate(1, 2, 6, 7).get("P@5"), DELTA);
+	}
+
+	@Test
+	public void rPrecision() {
+
+		// One of the top R = 3 documents is relevant
+		assertEquals(1.0 / 3, evaluate(1).get("R-Precision"), DELTA);
+		assertEquals(0.0, evaluate(2).get("R-Precision"), DELTA);
+		assertEquals((1.0 / 3) / 4, evaluate(1, 2, 6, 7).get("R-Precision"), DELTA);
+	}
+
+	@Test
+	public void reciprocalRank() {
+
+		assertEquals(1.0, evaluate(1).get("MRR"), DELTA);
+		assertEquals(1.0 / 3, evaluate(2).get("MRR"), DELTA);
+		assertEquals(0.0, evaluate(6).get("MRR"), DELTA);
+		assertEquals((1.0 + 1.0 / 3 + 0.0 + 0.5) / 4, evaluate(1, 2, 6, 7).get("MRR"), DELTA);
+	}
+
+	@Test
+	public void bpref() {
+
+		// min(R, N) = 2: 20 has no judged non-relevant document above it, 10 has one (40)
+		assertEquals((1.0 + (1.0 - 1.0 / 2)) / 3, evaluate(1).get("bpref"), DELTA);
+		// Unjudged documents are ignored, only the judged non-relevant 6 is above 5
+		assertEquals(0.0, evaluate(2).get("bpref"), DELTA);
+		// Without judged non-relevant documents every retrieved relevant document scores 1
+		assertEquals(1.0, evaluate(7).get("bpref"), DELTA);
+		assertEquals((0.5 + 0.0 + 0.0 + 1.0) / 4, evaluate(1, 2, 6, 7).get("bpref"), DELTA);
+	}
+
+	@Test
+	public void gains() {
+
+		assertEquals(4, Qrels.gain(-1));
+		assertEquals(4, Qrels.gain(1));
+		assertEquals(3, Qrels.gain(2));
+		assertEquals(2, Qrels.gain(3));
+		assertEquals(1, Qrels.gain(4));
+		assertEquals(0, Qrels.gain(Qrels.NOT_JUDGED));
+	}
+
+	@Test
+	public void ndcg() {
+
+		// Gains 3, 1 and 4, 1 at ranks 1, 3 and 4, 5; the ideal ranking has gains 4, 3, 2, 1, 1
+		double dcg = 3 + 1 / log2(4) + 4 / log2(5) + 1 / log2(6);
+		double idealDcg = 4 + 3 / log2(3) + 2 / log2(4) + 1 / log2(5) + 1 / log2(6);
+		assertEquals(dcg / idealDcg, evaluate(1).get("nDCG"), DELTA);
+		assertEquals(dcg / idealDcg, evaluate(1).get("nDCG@10"), DELTA);
+		assertEquals(0.727539, evaluate(1).get("nDCG"), 1e-6);
+
+		// Grade -1 has the gain of a complete answer
+		assertEquals((1 / log2(3) + 4 / log2(4)) / (4 + 1 / log2(3)), evaluate(2).get("nDCG"), DELTA);
+		assertEquals(0.0, evaluate(6).get("nDCG"), DELTA);
+		assertEquals(0.481648, evaluate(1, 2, 6, 7).get("nDCG"), 1e-6);
+	}
+
+	@Test
+	public void ndcgAtDepth() {
+
+		Evaluator evaluator = new Evaluator();
+		evaluator.setNdcgDepth(3);
+		Map<String, Double> metrics = evaluator.calculateMetrics(run(1), qrels(), 1);
+		assertEquals((3 + 1 / log2(4)) / (4 + 3 / log2(3) + 2 / log2(4)), metrics.get("nDCG@3"), DELTA);
+		assertEquals(evaluate(1).get("nDCG"), metrics.get("nDCG"), DELTA);
+	}
+
+	@Test
+	public void sameMetricsOnSeveralThreads() {
+
+		assertEquals(evaluate(1, 2, 3, 5, 6, 7), new Evaluator().calculateMetrics(run(1, 2, 3, 5, 6, 7), qrels(), 3));
+	}
+
+	private static double log2(int x) {
+
+		return Math.log(x) / Math.log(2);
+	}
+}
@@ -0,0 +1,207 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental indexing: documents are added, updated, skipped or deleted by comparing their checksums
+ * with the ones of the existing index.
+ */
+public class IndexerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void incrementalUpdateAppliesDelta() throws IOException {
+
+		checkIncrementalUpdate(1);
+	}
+
+	@Test
+	public void incrementalUpdateAppliesDeltaInParallel() throws IOException {
+
+		checkIncrementalUpdate(3);
+	}
+
+	private void checkIncrementalUpdate(int threads) throws IOException {
+
+		Path indexFile = folder.getRoot().toPath().resolve("index");
+		List<CranDocument> first = Arrays.asList(document("1", "flow"), document("2", "wing"), document("3", "shock"));
+		new Indexer().createCranIndex(indexFile, first.iterator(), "English", "BM25", options(threads, null));
+
+		// 1 unchanged, 2 updated, 3 removed from the corpus and 4 new
+		List<CranDocument> second = Arrays.asList(document("1", "flow"), document("2", "swept wing"), document("4", "nozzle"));
+		Metrics metrics = new Metrics();
+		new Indexer().createCranIndex(indexFile, second.iterator(), "English", "BM25", options(threads, metrics));
+
+		Map<String, Long> counters = metrics.getCounters();
+		assertEquals(Long.valueOf(1), counters.get("index.added"));
+		assertEquals(Long.valueOf(1), counters.get("index.updated"));
+		assertEquals(Long.valueOf(1), counters.get("index.unchanged"));
+		assertEquals(Long.valueOf(1), counters.get("index.deleted"));
+		// The skipped document does not count as indexed
+		assertEquals(Long.valueOf(2), counters.get("index.docs"));
+
+		Map<String, String> expected = new TreeMap<String, String>();
+		expected.put("1", "flow");
+		expected.put("2", "swept wing");
+		expected.put("4", "nozzle");
+		assertEquals(expected, liveTitles(indexFile));
+	}
+
+	@Test
+	public void incrementalShardsAreRejected() {
+
+		try {
+			new IndexOptions().setShards(2).setIncremental(true);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		try {
+			new IndexOptions().setIncremental(true).setShards(2);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertEquals(1, new IndexOptions().setIncremental(true).setShards(1).getShards());
+	}
+
+	@Test
+	public void combinedFieldRepeatsWeightedFields() throws IOException {
+
+		List<CranDocument> documents = Arrays.asList(
+				new CranDocument("1", "flow over a wing of the", "smith", "london", "the wing in supersonic flow ."),
+				new CranDocument("2", "wing flutter", "", "rome", "flutter of a thin wing ."));
+		Path indexFile = folder.getRoot().toPath().resolve("combined");
+		IndexOptions options = new IndexOptions().setThreads(1).setCombinedField(true).setFieldWeight("Title", 3).setFieldWeight("Authors", 0)
+				.setDirectoryFactory(new DirectoryFactory(DirectoryFactory.FS));
+		new Indexer().createCranIndex(indexFile, documents.iterator(), "English", "BM25", options);
+
+		// The same documents with the text of each field added as many times as its weight
+		Analyzer analyzer = AnalysisRegistry.getDefault().getAnalyzer("English");
+		Directory expected = new ByteBuffersDirectory();
+		IndexWriter iwriter = new IndexWriter(expected, new IndexWriterConfig(analyzer));
+		for (CranDocument cranDocument : documents) {
+
+			Document document = new Document();
+			String[] texts = {cranDocument.getTitle(), cranDocument.getLocations(), cranDocument.getAuthors(), cranDocument.getAbstract()};
+			int[] weights = {3, 1, 0, 1};
+			for (int i = 0; i < texts.length; i++) for (int j = 0; j < weights[i]; j++) document.add(new TextField("All", texts[i], Field.Store.NO));
+			iwriter.addDocument(document);
+		}
+		iwriter.close();
+
+		Directory directory = new DirectoryFactory(DirectoryFactory.FS).open(indexFile);
+		try {
+			List<String> postings = postings(expected, "All");
+			assertEquals(postings, postings(directory, "All"));
+			assertTrue(postings.toString(), postings.contains("wing doc 0 freq 4 positions [3, 9, 15, 20]"));
+		}
+		finally {
+
+			directory.close();
+			expected.close();
+		}
+	}
+
+	/**
+	 * @return every term of a field with the documents, frequencies and positions of its postings
+	 */
+	private static List<String> postings(Directory directory, String field) throws IOException {
+
+		List<String> postings = new ArrayList<String>();
+		DirectoryReader ireader = DirectoryReader.open(directory);
+		try {
+			for (LeafReaderContext leaf : ireader.leaves()) {
+
+				Terms terms = leaf.reader().terms(field);
+				if (terms == null) continue;
+				TermsEnum termsEnum = terms.iterator();
+				BytesRef term;
+				while ((term = termsEnum.next()) != null) {
+
+					PostingsEnum postingsEnum = termsEnum.postings(null, PostingsEnum.POSITIONS);
+					while (postingsEnum.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+
+						List<Integer> positions = new ArrayList<Integer>();
+						for (int i = 0; i < postingsEnum.freq(); i++) positions.add(postingsEnum.nextPosition());
+						postings.add(term.utf8ToString() + " doc " + (leaf.docBase + postingsEnum.docID()) + " freq " + postingsEnum.freq() + " positions " + positions);
+					}
+				}
+			}
+		}
+		finally {
+			ireader.close();
+		}
+		return postings;
+	}
+
+	private static IndexOptions options(int threads, Metrics metrics) {
+
+		return new IndexOptions().setThreads(threads).setIncremental(true).setStoreFields(true).setMetrics(metrics)
+				.setDirectoryFactory(new DirectoryFactory(DirectoryFactory.FS));
+	}
+
+	private static CranDocument document(String id, String title) {
+
+		return new CranDocument(id, title, "author", "location", "abstract of " + title);
+	}
+
+	/**
+	 * @return the title of every live document, keyed by ID
+	 */
+	private static Map<String, String> liveTitles(Path indexFile) throws IOException {
+
+		Map<String, String> titles = new TreeMap<String, String>();
+		Directory directory = new DirectoryFactory(DirectoryFactory.FS).open(indexFile);
+		DirectoryReader ireader = DirectoryReader.open(directory);
+		try {
+			for (LeafReaderContext leaf : ireader.leaves()) {
+
+				Bits liveDocs = leaf.reader().getLiveDocs();
+				for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+
+					if (liveDocs != null && !liveDocs.get(doc)) continue;
+					titles.put(leaf.reader().document(doc).get("ID"), leaf.reader().document(doc).get("Title"));
+				}
+			}
+		}
+		finally {
+
+			ireader.close();
+			directory.close();
+		}
+		return titles;
+	}
+}
@@ -0,0 +1,94 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Percentiles read from the log-linear buckets are never below the exact value and at most one bucket,
+ * 1/32 of the value, above it.
+ */
+public class LatencyHistogramTest {
+
+	private static final double[] PERCENTILES = {0, 1, 10, 25, 50, 75, 90, 95, 99, 99.9, 100};
+
+	@Test
+	public void emptyHistogram() {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (double percentile : PERCENTILES) assertEquals(0, histogram.percentile(percentile));
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMaxNanos());
+		assertEquals(0.0, histogram.getMeanNanos(), 0.0);
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int nanos = 0; nanos < 64; nanos++) histogram.record(nanos);
+		assertEquals(31, histogram.percentile(50));
+		assertEquals(0, histogram.percentile(1));
+		assertEquals(63, histogram.percentile(100));
+		assertEquals(31.5, histogram.getMeanNanos(), 1e-9);
+
+		// Negative durations count as 0
+		histogram.reset();
+		histogram.record(-5);
+		assertEquals(0, histogram.percentile(50));
+		assertEquals(1, histogram.getCount());
+	}
+
+	@Test
+	public void singleValue() {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(12345678);
+		// Every percentile is capped at the maximum, so a single value reads back exactly
+		for (double percentile : PERCENTILES) assertEquals(12345678, histogram.percentile(percentile));
+	}
+
+	@Test
+	public void percentilesWithinErrorBound() {
+
+		// A uniform spread over every bucket up to 100 us, and latencies spread over six orders of magnitude
+		long[] uniform = new long[100000];
+		for (int i = 0; i < uniform.length; i++) uniform[i] = i + 1;
+		checkPercentiles(uniform);
+
+		Random random = new Random(42);
+		long[] spread = new long[50000];
+		for (int i = 0; i < spread.length; i++) spread[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+		checkPercentiles(spread);
+	}
+
+	private static void checkPercentiles(long[] values) {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		long total = 0;
+		for (long value : values) {
+
+			histogram.record(value);
+			total += value;
+		}
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(total, histogram.getTotalNanos());
+		assertEquals(sorted[sorted.length - 1], histogram.getMaxNanos());
+
+		for (double percentile : new double[] {1, 10, 25, 50, 75, 90, 95, 99, 99.9, 99.99}) {
+
+			long exact = sorted[(int) Math.max(1, Math.ceil(percentile / 100 * sorted.length)) - 1];
+			long reported = histogram.percentile(percentile);
+			String message = "p" + percentile + " of " + exact + " reported as " + reported;
+			assertTrue(message, reported >= exact);
+			assertTrue(message, reported <= exact + exact / 32);
+		}
+		assertEquals(sorted[sorted.length - 1], histogram.percentile(100));
+	}
+}
@@ -0,0 +1,99 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules of the load generator, run against a stub search taking a known time.
+ */
+public class LoadGeneratorTest {
+
+	private static final long SERVICE_MILLIS = 20;
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final List<String> QUERIES = Arrays.asList("flow", "wing", "shock");
+
+	/**
+	 * Sleeps for every search and counts the searches
+	 */
+	private static class SleepingSearcher extends Searcher {
+
+		final AtomicInteger searches = new AtomicInteger();
+
+		@Override
+		SearchResult search(SearchService searchService, String queryString, int hitsPerPage, String[] fields, String similarity) throws IOException, ParseException {
+
+			searches.incrementAndGet();
+			try {
+				Thread.sleep(SERVICE_MILLIS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new SearchResult(0);
+		}
+	}
+
+	@Test
+	public void closedLoopKeepsClientsBusy() throws InterruptedException {
+
+		LoadGenerator loadGenerator = new LoadGenerator();
+		loadGenerator.setDuration(100, 400);
+		SleepingSearcher searcher = new SleepingSearcher();
+		LoadGenerator.LoadResult result = loadGenerator.runClosedLoop(null, searcher, QUERIES, 2);
+
+		// Each of the 2 clients searches back to back for 400 ms, about 20 searches each
+		long count = result.latency.getCount();
+		assertTrue("measured " + count, count >= 30 && count <= 42);
+		assertTrue("searched " + searcher.searches.get(), searcher.searches.get() > count);
+		assertTrue(result.getThroughput() > 70 && result.getThroughput() <= 105);
+		assertEquals(0, result.errors.get());
+
+		// A client sends as soon as its last query returned, so there is no wait
+		assertEquals(result.serviceTime.getTotalNanos(), result.latency.getTotalNanos());
+		assertTrue(result.latency.percentile(50) >= SERVICE_MILLIS * MILLIS);
+	}
+
+	@Test
+	public void openLoopCountsLatencyFromPlannedSend() throws InterruptedException {
+
+		LoadGenerator loadGenerator = new LoadGenerator();
+		loadGenerator.setThreads(1);
+		loadGenerator.setDuration(0, 500);
+		SleepingSearcher searcher = new SleepingSearcher();
+		// A query due every 10 ms while one worker takes 20 ms for each, so the backlog keeps growing
+		LoadGenerator.LoadResult result = loadGenerator.runOpenLoop(null, searcher, QUERIES, 100);
+
+		assertEquals(50, searcher.searches.get());
+		assertEquals(50, result.latency.getCount());
+		assertEquals(50, result.serviceTime.getCount());
+
+		// Query i is due at 10i ms and returns at 20(i + 1) ms at the earliest, so the last one waited about 500 ms
+		assertTrue("p99 service " + result.serviceTime.percentile(99), result.serviceTime.percentile(99) < 100 * MILLIS);
+		assertTrue("max latency " + result.latency.getMaxNanos(), result.latency.getMaxNanos() >= 500 * MILLIS);
+		assertTrue("p50 latency " + result.latency.percentile(50), result.latency.percentile(50) >= 250 * MILLIS);
+		// Served one at a time, the throughput is capped by the service time rather than the arrival rate
+		assertTrue(result.getThroughput() <= 1000.0 / SERVICE_MILLIS);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void closedLoopRejectsNoQueries() throws InterruptedException {
+
+		new LoadGenerator().runClosedLoop(null, new SleepingSearcher(), Collections.<String>emptyList(), 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void openLoopRejectsNoQueries() throws InterruptedException {
+
+		new LoadGenerator().runOpenLoop(null, new SleepingSearcher(), Collections.<String>emptyList(), 10);
+	}
+}
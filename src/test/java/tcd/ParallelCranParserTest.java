@@ -0,0 +1,133 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ParallelCranParser cuts the corpus into chunks at record boundaries and must return exactly the
+ * documents of CranParser, in the same order, wherever the chunks end.
+ */
+public class ParallelCranParserTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Path CRAN = Paths.get("data/cran/cran.all.1400");
+
+	// A ".I" inside a word and inside a line, a non-ASCII character, CRLF line endings and no newline at the end
+	private static final String SMALL_CORPUS = ".I 1\n.T\nflow over a wing\n.A\nsmith\n.B\nj. ae. 1\n.W\nflow over a wing .\nas in ref .I 7 above\n.Inside is not a record\n"
+			+ ".I 2\n.T\nsupersonic flow\n.A\nm\u00fcller\n.B\nj. ae. 2\n.W\nshock waves in supersonic flow .\n"
+			+ ".I 3\r\n.T\r\nheat transfer\r\n.A\r\njones\r\n.B\r\nj. ae. 3\r\n.W\r\nheat transfer at the nose .\r\n"
+			+ ".I 4\n.T\nboundary layer\n.A\nbrown\n.B\nj. ae. 4\n.W\nlaminar boundary layer .";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void everyChunkBoundaryOfSmallCorpus() throws IOException {
+
+		Path file = folder.newFile("small").toPath();
+		Files.write(file, SMALL_CORPUS.getBytes(UTF8));
+		List<String> expected = keys(new CranParser(new BufferedReader(new StringReader(SMALL_CORPUS))));
+		assertEquals(4, expected.size());
+
+		// Chunk ends at every byte, so some split a record and some fall inside a "\n.I"
+		for (int chunkBytes = 1; chunkBytes <= SMALL_CORPUS.length() + 1; chunkBytes++) {
+
+			assertEquals("chunks of " + chunkBytes + " bytes", expected, keys(new ParallelCranParser(file, 1, chunkBytes)));
+			assertEquals("chunks of " + chunkBytes + " bytes on 3 threads", expected, keys(new ParallelCranParser(file, 3, chunkBytes)));
+		}
+	}
+
+	@Test
+	public void smallChunksOfCranCorpus() throws IOException {
+
+		List<String> expected = cranKeys();
+		assertEquals(1400, expected.size());
+		for (int chunkBytes : new int[] {1, 2, 3, 64, 1000, 4096, 100000}) {
+
+			assertEquals("chunks of " + chunkBytes + " bytes", expected, keys(new ParallelCranParser(CRAN, 1, chunkBytes)));
+			assertEquals("chunks of " + chunkBytes + " bytes on 4 threads", expected, keys(new ParallelCranParser(CRAN, 4, chunkBytes)));
+		}
+	}
+
+	@Test
+	public void directoryWithGzipFile() throws IOException {
+
+		// Split the corpus at a record, the second part gzip compressed
+		String corpus = new String(Files.readAllBytes(CRAN), UTF8);
+		int split = corpus.indexOf("\n.I 700\n") + 1;
+		Path dir = folder.newFolder("corpus").toPath();
+		Files.write(dir.resolve("part-1"), corpus.substring(0, split).getBytes(UTF8));
+		OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("part-2.gz")));
+		try {
+			out.write(corpus.substring(split).getBytes(UTF8));
+		}
+		finally {
+			out.close();
+		}
+		// Hidden files are not part of the corpus
+		Files.write(dir.resolve(".part-0"), ".I 9999\n.T\nhidden\n".getBytes(UTF8));
+
+		List<String> expected = cranKeys();
+		assertEquals(expected, keys(new ParallelCranParser(dir, 1)));
+		assertEquals(expected, keys(new ParallelCranParser(dir, 3, 1000)));
+	}
+
+	@Test
+	public void directoryIsNotSnapshot() throws IOException {
+
+		Path dir = folder.newFolder("changing").toPath();
+		Path file = dir.resolve("part-1");
+		Files.write(file, SMALL_CORPUS.getBytes(UTF8));
+
+		FileIO fileIO = new FileIO();
+		fileIO.setSnapshotDir(folder.newFolder("snapshots").toPath());
+		assertEquals(4, fileIO.parseCran(dir.toString()).size());
+
+		// Edits to the corpus files are parsed again
+		Files.write(file, SMALL_CORPUS.substring(0, SMALL_CORPUS.indexOf(".I 4")).getBytes(UTF8));
+		assertEquals(3, fileIO.parseCran(dir.toString()).size());
+	}
+
+	private static List<String> cranKeys() throws IOException {
+
+		return keys(new CranParser(new BufferedReader(new InputStreamReader(Files.newInputStream(CRAN), UTF8))));
+	}
+
+	/**
+	 * Drain and close a parser
+	 * @return every field of the documents, in order
+	 */
+	private static <P extends Iterator<CranDocument> & Closeable> List<String> keys(P cranParser) throws IOException {
+
+		List<String> keys = new ArrayList<String>();
+		try {
+			while (cranParser.hasNext()) {
+
+				CranDocument document = cranParser.next();
+				keys.add(document.getId() + "|" + document.getTitle() + "|" + document.getAuthors() + "|" + document.getLocations() + "|" + document.getAbstract());
+			}
+		}
+		finally {
+			cranParser.close();
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,70 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The query cache must not outlive the definition of the analyzer it was built with.
+ */
+public class PreparedQueriesTest {
+
+	// Only used by this test, so redefining it does not affect other users of the default registry
+	private static final String ANALYZER = "PreparedQueriesTest";
+	private static final String[] FIELDS = {"Title", "Abstract"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void changedAnalyzerChainInvalidatesCache() throws IOException, ParseException {
+
+		Path cacheDir = folder.newFolder("cache").toPath();
+		List<Map<String, String>> cranQueryList = new ArrayList<Map<String, String>>();
+		Map<String, String> cranQuery = new HashMap<String, String>();
+		cranQuery.put("Query", "Flows over Wings");
+		cranQueryList.add(cranQuery);
+
+		define("standard,lowercase");
+		assertFalse(load(cacheDir, cranQueryList).isFromCache());
+		PreparedQueries cached = load(cacheDir, cranQueryList);
+		assertTrue(cached.isFromCache());
+		assertEquals("(Title:flows Abstract:flows) (Title:over Abstract:over) (Title:wings Abstract:wings)", cached.get(0).toString());
+
+		// Same name and analyzer class, but the terms now get stemmed
+		define("standard,lowercase,porterstem");
+		PreparedQueries stemmed = load(cacheDir, cranQueryList);
+		assertFalse(stemmed.isFromCache());
+		assertEquals("(Title:flow Abstract:flow) (Title:over Abstract:over) (Title:wing Abstract:wing)", stemmed.get(0).toString());
+	}
+
+	private void define(String chain) throws IOException {
+
+		Path config = folder.newFile().toPath();
+		Files.write(config, Arrays.asList("analyzer." + ANALYZER + " = " + chain), Charset.forName("UTF-8"));
+		AnalysisRegistry.getDefault().loadConfig(config);
+	}
+
+	private static PreparedQueries load(Path cacheDir, List<Map<String, String>> cranQueryList) throws IOException, ParseException {
+
+		Analyzer analyzer = AnalysisRegistry.getDefault().getAnalyzer(ANALYZER);
+		return PreparedQueries.load(cacheDir, cranQueryList, ANALYZER, analyzer, FIELDS, new MultiFieldQueryParser(FIELDS, analyzer));
+	}
+}
@@ -0,0 +1,86 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Readers searched in turn keep their own entries, and the entries of a reader go once it is closed.
+ */
+public class QueryResultCacheTest {
+
+	@Test
+	public void alternatingReadersKeepTheirEntries() throws IOException {
+
+		Directory first = index();
+		Directory second = index();
+		DirectoryReader firstReader = DirectoryReader.open(first);
+		DirectoryReader secondReader = DirectoryReader.open(second);
+		try {
+			QueryResultCache cache = new QueryResultCache(100, 1000);
+			Searcher.SearchResult firstResult = new Searcher.SearchResult(1);
+			Searcher.SearchResult secondResult = new Searcher.SearchResult(2);
+			cache.put(firstReader.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10, firstResult);
+			cache.put(secondReader.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10, secondResult);
+
+			for (int i = 0; i < 5; i++) {
+
+				assertSame(firstResult, cache.get(firstReader.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10));
+				assertSame(secondResult, cache.get(secondReader.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10));
+			}
+			assertEquals(10, cache.getHitCount());
+			assertEquals(0, cache.getMissCount());
+			assertEquals(2, cache.size());
+
+			// Closing a reader drops its entries only
+			firstReader.close();
+			assertEquals(1, cache.size());
+			assertSame(secondResult, cache.get(secondReader.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10));
+
+			// A reader opened on a new commit does not see the entries of the old one
+			addDocument(second);
+			DirectoryReader refreshed = DirectoryReader.openIfChanged(secondReader);
+			try {
+				assertNull(cache.get(refreshed.getReaderCacheHelper(), "English", "BM25", "Title:flow", 10));
+			}
+			finally {
+				refreshed.close();
+			}
+		}
+		finally {
+
+			if (firstReader.getRefCount() > 0) firstReader.close();
+			secondReader.close();
+			first.close();
+			second.close();
+		}
+	}
+
+	private static Directory index() throws IOException {
+
+		Directory directory = new ByteBuffersDirectory();
+		addDocument(directory);
+		return directory;
+	}
+
+	/**
+	 * Commit one more document
+	 */
+	private static void addDocument(Directory directory) throws IOException {
+
+		IndexWriter iwriter = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+		iwriter.addDocument(new Document());
+		iwriter.close();
+	}
+}
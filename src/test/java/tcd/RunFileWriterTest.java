@@ -0,0 +1,86 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scores written by RunFileWriter must parse back to the exact float, or run files would rank
+ * documents differently from the searcher.
+ */
+public class RunFileWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void edgeValuesParseBack() throws IOException {
+
+		checkRoundTrip(new float[] {
+				0f, -0f, 1f, -1f, 2f, 10f, 100f, 1000f, 123456f, 16777216f, 999999999f, 1e9f, 1e10f,
+				0.1f, 0.5f, 0.999999f, 9.999999f, 99.99999f, 1e-8f, 1.5e-9f, 1e-9f, 9.99e-10f, 1e-10f, 1e-30f,
+				Float.MIN_VALUE, Float.MIN_NORMAL, Float.MIN_NORMAL / 3, Float.MAX_VALUE, -Float.MAX_VALUE,
+				Math.nextUp(1f), Math.nextAfter(1f, 0), Math.nextUp(1e-9f), Math.nextAfter(1e9f, 0),
+				Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY});
+	}
+
+	@Test
+	public void wholeNumbersParseBack() throws IOException {
+
+		float[] scores = new float[2000];
+		for (int i = 0; i < scores.length; i++) scores[i] = i % 2 == 0 ? i : (float) Math.pow(2, i % 60) * (i % 7 + 1);
+		checkRoundTrip(scores);
+	}
+
+	@Test
+	public void randomFloatsParseBack() throws IOException {
+
+		Random random = new Random(42);
+		float[] scores = new float[200000];
+		for (int i = 0; i < scores.length; i++) {
+
+			// Every finite bit pattern, and typical BM25 and LMDirichlet scores
+			if (i % 3 == 0) {
+
+				float score;
+				do score = Float.intBitsToFloat(random.nextInt()); while (Float.isNaN(score) || Float.isInfinite(score));
+				scores[i] = score;
+			}
+			else if (i % 3 == 1) scores[i] = random.nextFloat() * 50;
+			else scores[i] = random.nextFloat() * 1e-3f;
+		}
+		checkRoundTrip(scores);
+	}
+
+	private void checkRoundTrip(float[] scores) throws IOException {
+
+		String[] ids = new String[scores.length];
+		for (int i = 0; i < ids.length; i++) ids[i] = Integer.toString(i + 1);
+
+		Path runFile = folder.newFile("run.txt").toPath();
+		RunFileWriter writer = new RunFileWriter(runFile, "test");
+		writer.writeQuery("1", ids, scores);
+		writer.close();
+
+		List<String> lines = Files.readAllLines(runFile, Charset.forName("UTF-8"));
+		assertEquals(scores.length, lines.size());
+		for (int i = 0; i < scores.length; i++) {
+
+			String[] columns = lines.get(i).split(" ");
+			assertEquals(6, columns.length);
+			assertEquals(ids[i], columns[2]);
+			float parsed = Float.parseFloat(columns[4]);
+			assertTrue("score " + scores[i] + " written as " + columns[4], parsed == scores[i]);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package tcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The HTTP endpoints over a small index: JSON hits of single and batch searches, and the status codes
+ * of invalid requests and failed searches.
+ */
+public class SearchServerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Pattern ID = Pattern.compile("\"id\": \"(\\d+)\"");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SearchService searchService;
+	private SearchServer searchServer;
+
+	@Before
+	public void setUp() throws IOException {
+
+		List<CranDocument> documents = Arrays.asList(
+				new CranDocument("1", "flow over a swept wing", "smith", "london", "the swept wing in supersonic flow ."),
+				new CranDocument("2", "heat transfer", "jones", "paris", "heat transfer at the nose of a blunt body ."),
+				new CranDocument("3", "wing flutter", "brown", "rome", "flutter of a thin wing ."),
+				new CranDocument("4", "boundary layer", "white", "oslo", "laminar boundary layer on a flat plate ."));
+		Path indexFile = folder.getRoot().toPath().resolve("index");
+		new Indexer().createCranIndex(indexFile, documents.iterator(), "English", "BM25", new IndexOptions().setThreads(1));
+		searchService = new SearchService(indexFile);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+
+		if (searchServer != null) searchServer.close();
+		searchService.close();
+	}
+
+	private String start(Searcher searcher) throws IOException {
+
+		searchServer = new SearchServer(searchService, searcher, new InetSocketAddress("localhost", 0), 1);
+		searchServer.start();
+		return "http://localhost:" + searchServer.getPort();
+	}
+
+	@Test
+	public void searchAnswersHits() throws IOException {
+
+		String base = start(new Searcher());
+		HttpURLConnection connection = get(base + "/search?q=wing&k=5");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=utf-8", connection.getContentType());
+		String json = read(connection.getInputStream());
+		assertTrue(json, json.startsWith("{\"query\": \"wing\", \"tookMicros\": "));
+		assertEquals(Arrays.asList("3", "1"), ids(json));
+
+		// Fields restrict the search, k the number of hits
+		assertEquals(Arrays.asList("3"), ids(read(get(base + "/search?q=wing&fields=Title&k=1").getInputStream())));
+		assertEquals(Arrays.asList("2"), ids(read(get(base + "/search?q=" + "paris" + "&fields=Locations,Authors").getInputStream())));
+	}
+
+	@Test
+	public void batchKeepsQueryOrder() throws IOException {
+
+		String base = start(new Searcher());
+		HttpURLConnection connection = post(base + "/search/batch?k=1", "boundary layer\n\nheat transfer\nflutter\n");
+		assertEquals(200, connection.getResponseCode());
+		String json = read(connection.getInputStream());
+		assertEquals(Arrays.asList("4", "2", "3"), ids(json));
+		assertTrue(json, json.indexOf("\"boundary layer\"") < json.indexOf("\"heat transfer\"") && json.indexOf("\"heat transfer\"") < json.indexOf("\"flutter\""));
+	}
+
+	@Test
+	public void invalidRequestsAnswer400() throws IOException {
+
+		String base = start(new Searcher());
+		assertError(400, "{\"error\": \"Missing query parameter q\"}\n", get(base + "/search"));
+		assertError(400, "{\"error\": \"k must be a number, got ten\"}\n", get(base + "/search?q=wing&k=ten"));
+		assertError(400, "{\"error\": \"k must be between 1 and 10000, got 0\"}\n", get(base + "/search?q=wing&k=0"));
+		assertError(400, "{\"error\": \"Unknown similarity Okapi\"}\n", get(base + "/search?q=wing&similarity=Okapi"));
+		assertError(400, "{\"error\": \"Unknown field Body, expected some of [Title, Locations, Authors, Abstract, All]\"}\n",
+				get(base + "/search?q=wing&fields=Title,Body"));
+		assertError(400, "{\"error\": \"Unknown field Body, expected some of [Title, Locations, Authors, Abstract, All]\"}\n",
+				post(base + "/search/batch?fields=Body", "wing\n"));
+		assertEquals(400, get(base + "/search?q=wing+AND+(").getResponseCode());
+	}
+
+	@Test
+	public void otherPathsAnswer404() throws IOException {
+
+		String base = start(new Searcher());
+		assertError(404, "{\"error\": \"No endpoint at /search/anything\"}\n", get(base + "/search/anything?q=wing"));
+		assertError(404, "{\"error\": \"No endpoint at /search/batch/more\"}\n", post(base + "/search/batch/more", "wing\n"));
+		assertEquals(405, post(base + "/search", "wing\n").getResponseCode());
+	}
+
+	@Test
+	public void runtimeFailureAnswers500() throws IOException {
+
+		String base = start(new Searcher() {
+
+			@Override
+			SearchResult search(SearchService searchService, String queryString, int hitsPerPage, String[] fields, String similarity) throws IOException, ParseException {
+				throw new BooleanQuery.TooManyClauses();
+			}
+		});
+		String expected = "{\"error\": \"Search failed: org.apache.lucene.search.BooleanQuery$TooManyClauses: maxClauseCount is set to 1024\"}\n";
+
+		// The server logs the failure, keep it out of the test output
+		PrintStream err = System.err;
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(log, true));
+		try {
+			assertError(500, expected, get(base + "/search?q=wing*"));
+			assertError(500, expected, post(base + "/search/batch", "wing*\nflow*\n"));
+		}
+		finally {
+			System.setErr(err);
+		}
+		assertTrue(log.toString().contains("TooManyClauses"));
+	}
+
+	private static HttpURLConnection get(String url) throws IOException {
+
+		return (HttpURLConnection) new URL(url).openConnection();
+	}
+
+	private static HttpURLConnection post(String url, String body) throws IOException {
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		out.write(body.getBytes(UTF8));
+		out.close();
+		return connection;
+	}
+
+	private static void assertError(int status, String body, HttpURLConnection connection) throws IOException {
+
+		assertEquals(status, connection.getResponseCode());
+		assertEquals(body, read(connection.getErrorStream()));
+	}
+
+	/**
+	 * @return the ids of the hits, in the order of the JSON answer
+	 */
+	private static List<String> ids(String json) {
+
+		List<String> ids = new ArrayList<String>();
+		Matcher matcher = ID.matcher(json);
+		while (matcher.find()) ids.add(matcher.group(1));
+		return ids;
+	}
+
+	private static String read(InputStream in) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int length;
+		while ((length = in.read(buffer)) != -1) bytes.write(buffer, 0, length);
+		in.close();
+		return new String(bytes.toByteArray(), UTF8);
+	}
+}
@@ -0,0 +1,79 @@
+package tcd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sharded index must rank the cran queries exactly as a single index of the same documents: the same
+ * IDs in the same order, hits of equal score included, with the same scores.
+ */
+public class ShardedIndexSearcherTest {
+
+	private static final int HITS = 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shardsRankAsSingleIndex() throws IOException, ParseException {
+
+		List<Map<String, String>> cranQueryList = new FileIO().parseCranQueries("data/cran");
+		Path single = buildIndex("single", 1);
+		for (int shards : new int[] {2, 3, 4}) {
+
+			Path sharded = buildIndex("shards-" + shards, shards);
+			for (String similarity : new String[] {"BM25", "TFIDF", "LMDirichlet"}) compare(single, sharded, shards, similarity, cranQueryList);
+		}
+	}
+
+	private Path buildIndex(String name, int shards) throws IOException {
+
+		Path indexFile = folder.getRoot().toPath().resolve(name);
+		CranParser cranParser = new FileIO().streamCran("data/cran");
+		try {
+			// One thread keeps the single index in corpus order
+			new Indexer().createCranIndex(indexFile, cranParser, "English", "BM25", new IndexOptions().setThreads(1).setShards(shards)
+					.setDirectoryFactory(new DirectoryFactory(DirectoryFactory.FS)));
+		}
+		finally {
+			cranParser.close();
+		}
+		return indexFile;
+	}
+
+	private static void compare(Path single, Path sharded, int shards, String similarity, List<Map<String, String>> cranQueryList) throws IOException, ParseException {
+
+		SearchService singleService = new SearchService(single, new DirectoryFactory(DirectoryFactory.FS));
+		SearchService shardedService = new SearchService(sharded, new DirectoryFactory(DirectoryFactory.FS));
+		try {
+
+			assertEquals(1, singleService.getShardCount());
+			assertEquals(shards, shardedService.getShardCount());
+			Searcher searcher = new Searcher();
+			for (Map<String, String> cranQuery : cranQueryList) {
+
+				String queryString = cranQuery.get("Query");
+				String message = similarity + " on " + shards + " shards, query " + cranQuery.get("QueryNo");
+				Searcher.SearchResult expected = searcher.search(singleService, queryString, HITS, null, similarity);
+				Searcher.SearchResult actual = searcher.search(shardedService, queryString, HITS, null, similarity);
+				assertArrayEquals(message, expected.ids, actual.ids);
+				assertArrayEquals(message, expected.scores, actual.scores, 0f);
+			}
+		}
+		finally {
+
+			singleService.close();
+			shardedService.close();
+		}
+	}
+}